@@ -0,0 +1,148 @@
+package org.cuiyang.minicap;
+
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * minicap 协议解码基准测试
+ * <p>
+ * 吞吐量单位为帧/秒，bytes计数器为字节/秒。配合 -prof gc 查看 gc.alloc.rate.norm。
+ *
+ * @author cuiyang
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MinicapDecoderBenchmark {
+
+    /** 每次调用解码的帧数 */
+    private static final int FRAMES = 30;
+
+    /** TCP读取的分块大小，1~1MB */
+    @Param({"1", "7", "1460", "65536", "1048576"})
+    private int chunkSize;
+
+    /** 帧大小 */
+    @Param({"300000", "800000"})
+    private int frameSize;
+
+    private MinicapStreamGenerator.ChunkedChannel channel;
+    private MinicapStreamGenerator.ChunkedInputStream inputStream;
+    private FrameDecoder decoder;
+    private FrameDecoder pooledDecoder;
+    private MinicapClient client;
+    private byte[] banner;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        byte[] stream = new MinicapStreamGenerator().stream(FRAMES, frameSize);
+        channel = MinicapStreamGenerator.channel(stream, chunkSize);
+        inputStream = MinicapStreamGenerator.inputStream(stream, chunkSize);
+        decoder = new FrameDecoder(Frame::release);
+        pooledDecoder = new FrameDecoder(FrameDecoder.DEFAULT_MAX_FRAME_SIZE, FrameDecoder.DEFAULT_BUFFER_SIZE,
+                new FramePool(true), Frame::release);
+        client = new MinicapClient(0) {
+            @Override
+            protected void offer(Frame frame) {
+                frame.release();
+            }
+        };
+        banner = MinicapStreamGenerator.banner(1080, 1920, 540, 960);
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        channel.rewind();
+        inputStream.rewind();
+        decoder.reset();
+        pooledDecoder.reset();
+        client.reset();
+    }
+
+    /**
+     * 原有的InputStream解码
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void streamDecoder(Bytes bytes) throws IOException {
+        client.handleServerResponse(inputStream);
+        bytes.bytes += (long) FRAMES * frameSize;
+    }
+
+    /**
+     * NIO解码，堆内缓冲池
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void channelDecoder(Bytes bytes) throws IOException {
+        //noinspection StatementWithEmptyBody
+        while (decoder.read(channel) >= 0) {
+        }
+        bytes.bytes += (long) FRAMES * frameSize;
+    }
+
+    /**
+     * NIO解码，堆外缓冲池
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void directChannelDecoder(Bytes bytes) throws IOException {
+        //noinspection StatementWithEmptyBody
+        while (pooledDecoder.read(channel) >= 0) {
+        }
+        bytes.bytes += (long) FRAMES * frameSize;
+    }
+
+    /**
+     * 原有的逐字节解析Banner
+     */
+    @Benchmark
+    public void parseBanner() {
+        client.reset();
+        for (byte b : banner) {
+            client.parseBanner(b & 0xff);
+        }
+    }
+
+    /**
+     * FrameDecoder解析Banner
+     */
+    @Benchmark
+    public Banner bannerDecoder() {
+        return FrameDecoder.parseBanner(banner, banner.length);
+    }
+
+    /**
+     * 字节计数器
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            bytes = 0;
+        }
+    }
+}
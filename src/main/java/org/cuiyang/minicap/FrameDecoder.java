@@ -0,0 +1,261 @@
+package org.cuiyang.minicap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Minicap 帧解码器
+ * <p>
+ * Banner和帧长度读入复用的缓冲区；帧按最终长度从缓冲池借出，之后原地填充。
+ * 缓冲区读空后直接从通道读入帧，不经过中间拷贝。阻塞与非阻塞通道均可使用。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FrameDecoder {
+
+    /** 默认最大帧长度 */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 8 * 1024 * 1024;
+    /** 默认读缓冲区大小 */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** 最大帧长度，防止错误的长度导致超大内存分配 */
+    private final int maxFrameSize;
+    /** 复用的读缓冲区，两次读取之间处于读模式 */
+    private final ByteBuffer buffer;
+    /** 帧处理 */
+    private final Handler handler;
+    /** 帧缓冲池 */
+    private final FramePool pool;
+    /** 帧序号 */
+    private long sequence = 0;
+
+    /** Banner的最小长度，版本1为24字节 */
+    private static final int MIN_BANNER_LENGTH = 24;
+
+    /** Banner */
+    private Banner banner;
+    /** Banner原始数据 */
+    private final byte[] bannerBytes = new byte[255];
+    /** 已读取Banner的长度 */
+    private int readBannerBytes = 0;
+    /** Banner的长度 */
+    private int bannerLength = 2;
+    /** 已读取帧长度的字节数 */
+    private int readLengthBytes = 0;
+    /** 帧的长度 */
+    private int frameBodyLength = 0;
+    /** 正在填充的帧 */
+    private Frame frame;
+    /** 正在填充的帧的可写视图 */
+    private ByteBuffer frameContent;
+
+    public FrameDecoder(Handler handler) {
+        this(DEFAULT_MAX_FRAME_SIZE, handler);
+    }
+
+    public FrameDecoder(int maxFrameSize, Handler handler) {
+        this(maxFrameSize, DEFAULT_BUFFER_SIZE, handler);
+    }
+
+    public FrameDecoder(int maxFrameSize, int bufferSize, Handler handler) {
+        this(maxFrameSize, bufferSize, FramePool.getDefault(), handler);
+    }
+
+    public FrameDecoder(int maxFrameSize, int bufferSize, FramePool pool, Handler handler) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize必须大于0");
+        }
+        this.maxFrameSize = maxFrameSize;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.flip();
+        this.handler = handler;
+        this.pool = pool;
+    }
+
+    /**
+     * 从通道读取一次并解码
+     * @param channel 通道
+     * @return 读取的字节数，-1表示连接已关闭
+     * @throws IOException 读取失败、Banner或帧长度异常
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (frame != null && !buffer.hasRemaining()) {
+            // 缓冲区已空，直接读入帧
+            int len = channel.read(frameContent);
+            if (len > 0 && !frameContent.hasRemaining()) {
+                completeFrame();
+            }
+            return len;
+        }
+        buffer.compact();
+        int len;
+        try {
+            len = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        decode(buffer);
+        return len;
+    }
+
+    /**
+     * 解码数据，消费输入的全部字节
+     * @param in 输入
+     * @throws IOException Banner或帧长度异常
+     */
+    public void decode(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (readBannerBytes < bannerLength) {
+                // 读取Banner
+                parseBanner(in.get() & 0xff);
+            } else if (readLengthBytes < 4) {
+                // 读取帧的长度
+                frameBodyLength += ((in.get() & 0xff) << (readLengthBytes * 8));
+                readLengthBytes ++;
+                if (readLengthBytes == 4) {
+                    startFrame();
+                }
+            } else {
+                // 读取帧
+                int n = Math.min(in.remaining(), frameContent.remaining());
+                int limit = in.limit();
+                in.limit(in.position() + n);
+                frameContent.put(in);
+                in.limit(limit);
+                if (!frameContent.hasRemaining()) {
+                    completeFrame();
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取Banner
+     * @return Banner，未读取完成时返回null
+     */
+    public Banner getBanner() {
+        return readBannerBytes == bannerLength ? banner : null;
+    }
+
+    /**
+     * 获取最大帧长度
+     * @return 最大帧长度
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * 重置，重新连接时调用
+     */
+    public void reset() {
+        this.buffer.clear();
+        this.buffer.flip();
+        this.banner = null;
+        this.readBannerBytes = 0;
+        this.bannerLength = 2;
+        this.readLengthBytes = 0;
+        this.frameBodyLength = 0;
+        if (this.frame != null) {
+            this.frame.release();
+            this.frame = null;
+            this.frameContent = null;
+        }
+    }
+
+    /**
+     * 解析Banner
+     */
+    private void parseBanner(int data) throws IOException {
+        bannerBytes[readBannerBytes] = (byte) data;
+        if (readBannerBytes == 1) {
+            if (data < MIN_BANNER_LENGTH) {
+                throw new IOException(String.format("Banner长度异常: %s, 最小长度: %s", data, MIN_BANNER_LENGTH));
+            }
+            bannerLength = data;
+        }
+        readBannerBytes ++;
+        if (readBannerBytes == bannerLength) {
+            banner = parseBanner(bannerBytes, bannerLength);
+            log.info("Banner: {}", banner);
+            handler.onBanner(banner);
+        }
+    }
+
+    /**
+     * 解析Banner
+     * @param bytes Banner原始数据
+     * @param length Banner长度
+     * @return Banner
+     */
+    static Banner parseBanner(byte[] bytes, int length) {
+        ByteBuffer in = ByteBuffer.wrap(bytes, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        Banner banner = new Banner();
+        banner.setVersion(in.get() & 0xff);
+        banner.setLength(in.get() & 0xff);
+        if (in.remaining() >= 22) {
+            banner.setPid(in.getInt());
+            banner.setRealWidth(in.getInt());
+            banner.setRealHeight(in.getInt());
+            banner.setVirtualWidth(in.getInt());
+            banner.setVirtualHeight(in.getInt());
+            banner.setOrientation((in.get() & 0xff) * 90);
+            banner.setQuirks(in.get() & 0xff);
+        }
+        return banner;
+    }
+
+    /**
+     * 开始读取一帧，按最终长度分配
+     */
+    private void startFrame() throws IOException {
+        if (frameBodyLength < 0 || frameBodyLength > maxFrameSize) {
+            throw new IOException(String.format("帧长度异常: %s, 最大帧长度: %s", frameBodyLength & 0xffffffffL, maxFrameSize));
+        }
+        frame = pool.allocate(frameBodyLength);
+        frameContent = frame.content();
+        if (frameBodyLength == 0) {
+            completeFrame();
+        }
+    }
+
+    /**
+     * 读取到一帧
+     */
+    private void completeFrame() {
+        Frame body = frame;
+        frame = null;
+        frameContent = null;
+        frameBodyLength = readLengthBytes = 0;
+        body.setSequence(++sequence);
+        body.setTimestamp(System.currentTimeMillis());
+        body.setNanoTime(System.nanoTime());
+        handler.onFrame(body);
+    }
+
+    /**
+     * 帧处理
+     */
+    public interface Handler {
+
+        /**
+         * 读取到Banner
+         * @param banner Banner
+         */
+        default void onBanner(Banner banner) {
+        }
+
+        /**
+         * 读取到一帧，引用计数为1，由处理方负责释放
+         * @param frame 一帧画面
+         */
+        void onFrame(Frame frame);
+    }
+}
@@ -0,0 +1,41 @@
+package org.cuiyang.minicap;
+
+import org.cuiyang.minicap.frame.Frame;
+
+/**
+ * 帧监听
+ * <p>
+ * 帧只在回调期间有效，需要在回调返回后继续使用时调用{@link Frame#retain()}，使用完后调用{@link Frame#release()}
+ *
+ * @author cuiyang
+ */
+public interface FrameListener {
+
+    /**
+     * 映射
+     * @param frame 一帧画面
+     */
+    void onFrame(Frame frame);
+
+    /**
+     * 画面未变化的心跳，开启重复帧过滤时调用
+     * @param suppressed 自上一次投递以来过滤的重复帧数
+     */
+    default void onUnchanged(long suppressed) {
+    }
+
+    /**
+     * 订阅已结束，之后不再收到帧，通过{@link org.cuiyang.minicap.hub.FrameHub}订阅时调用
+     */
+    default void onComplete() {
+    }
+
+    /**
+     * 将ScreenListener适配为FrameListener，每帧拷贝一次
+     * @param listener ScreenListener
+     * @return FrameListener
+     */
+    static FrameListener copying(ScreenListener listener) {
+        return frame -> listener.projection(frame.toByteArray());
+    }
+}
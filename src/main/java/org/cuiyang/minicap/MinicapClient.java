@@ -3,14 +3,26 @@ package org.cuiyang.minicap;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+import org.cuiyang.minicap.frame.FrameQueue;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+import org.cuiyang.minicap.util.Backoff;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Minicap client
@@ -20,20 +32,53 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @Slf4j
 public class MinicapClient extends Thread implements Closeable {
 
+    /** 重连的初始间隔(毫秒) */
+    private static final long RECONNECT_INITIAL_MILLIS = 10;
+    /** 重连的最大间隔(毫秒) */
+    private static final long RECONNECT_MAX_MILLIS = 1000;
+
     /** 主机 */
     private String host = "localhost";
     /** 端口号 */
     private int port;
     /** 队列大小 */
     private int queueSize = 50;
+    /** 投递策略 */
+    private DeliveryPolicy deliveryPolicy = DeliveryPolicy.DROP_OLDEST;
+    /** 是否使用NIO解码 */
+    private boolean nio = true;
+    /** 最大帧长度 */
+    private int maxFrameSize = FrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    /** NIO解码器 */
+    private FrameDecoder decoder;
     /** 和minicap通信 */
-    private Socket socket;
+    private volatile Socket socket;
     /** 存放图片队列 */
-    private BlockingQueue<byte[]> frameQueue;
+    private FrameQueue frameQueue;
+    /** 帧缓冲池 */
+    private FramePool framePool = FramePool.getDefault();
     /** 是否运行 */
     private AtomicBoolean isRunning = new AtomicBoolean(false);
-    /** 调用take的线程 */
-    private Thread takeThread;
+    /** 事件循环，为null时单独使用一个线程阻塞读取 */
+    private MinicapEventLoopGroup eventLoopGroup;
+    /** 帧的直接接收者，不为null时帧不进入队列 */
+    private volatile FrameListener frameSink;
+    /** 所在的事件循环，解码器只在该线程中访问 */
+    private volatile Executor eventLoop;
+    /** 运行客户端的线程 */
+    private volatile Thread runner;
+    /** 新帧或关闭时通知等待的消费者 */
+    private final Object available = new Object();
+    /** 等待帧的消费者数量 */
+    private final AtomicInteger waiters = new AtomicInteger();
+    /** 指标 */
+    private FrameMetrics metrics = new FrameMetrics();
+    /** 已建立的连接数 */
+    private long connections;
+    /** 重连退避，收到Banner后重置 */
+    private final Backoff backoff = new Backoff(RECONNECT_INITIAL_MILLIS, RECONNECT_MAX_MILLIS, TimeUnit.MILLISECONDS);
+    /** 收到第一帧 */
+    private final CountDownLatch firstFrame = new CountDownLatch(1);
 
     /** Banner */
     private Banner banner;
@@ -63,22 +108,254 @@ public class MinicapClient extends Thread implements Closeable {
      * 获取帧，如果没有则阻塞
      * @return 帧
      * @throws InterruptedException 阻塞中断
+     * @throws IllegalStateException 客户端已关闭
      */
-    public synchronized byte[] take() throws InterruptedException {
+    public byte[] take() throws InterruptedException {
+        Frame frame = takeFrame();
+        try {
+            return frame.toByteArray();
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * 获取帧，如果没有则阻塞。使用完后需调用{@link Frame#release()}
+     * @return 帧
+     * @throws InterruptedException 阻塞中断
+     * @throws IllegalStateException 客户端已关闭
+     */
+    public Frame takeFrame() throws InterruptedException {
+        Frame frame = tryTake();
+        return frame != null ? frame : await(0);
+    }
+
+    /**
+     * 获取帧，如果没有则等待指定时间。使用完后需调用{@link Frame#release()}
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     * @return 帧，超时返回null
+     * @throws InterruptedException 等待中断
+     * @throws IllegalStateException 客户端已关闭
+     */
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        Frame frame = tryTake();
+        if (frame != null || timeout <= 0) {
+            return frame;
+        }
+        return await(Math.max(1, unit.toNanos(timeout)));
+    }
+
+    /**
+     * 获取帧，不阻塞。使用完后需调用{@link Frame#release()}
+     * @return 帧，没有则返回null
+     * @throws IllegalStateException 客户端已关闭
+     */
+    public Frame tryTake() {
+        checkClosed();
+        return frameQueue.poll();
+    }
+
+    /**
+     * 取出队列中已有的帧，不阻塞。使用完后需调用{@link Frame#release()}
+     * @param frames 接收帧的集合
+     * @param maxFrames 最多取出的帧数
+     * @return 取出的帧数
+     * @throws IllegalStateException 客户端已关闭
+     */
+    public int drainTo(Collection<? super Frame> frames, int maxFrames) {
         checkClosed();
-        takeThread = Thread.currentThread();
-        return frameQueue.take();
+        int count = 0;
+        Frame frame;
+        while (count < maxFrames && (frame = frameQueue.poll()) != null) {
+            frames.add(frame);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 等待新帧，多个消费者可同时等待，关闭时全部唤醒
+     * @param nanos 等待时间，0表示一直等待
+     * @return 帧，超时返回null
+     */
+    private Frame await(long nanos) throws InterruptedException {
+        long deadline = System.nanoTime() + nanos;
+        waiters.incrementAndGet();
+        try {
+            synchronized (available) {
+                Frame frame;
+                while ((frame = tryTake()) == null) {
+                    if (nanos == 0) {
+                        available.wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(available, remaining);
+                    }
+                }
+                return frame;
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 唤醒等待的消费者
+     */
+    private void signalAvailable() {
+        synchronized (available) {
+            available.notifyAll();
+        }
+    }
+
+    /**
+     * 等待收到第一帧
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     * @return true 已收到 false 超时
+     * @throws InterruptedException 等待中断
+     */
+    public boolean awaitFrame(long timeout, TimeUnit unit) throws InterruptedException {
+        return firstFrame.await(timeout, unit);
+    }
+
+    /**
+     * 设置投递策略，默认为DROP_OLDEST，需在启动前设置
+     * @param deliveryPolicy 投递策略
+     */
+    public void setDeliveryPolicy(DeliveryPolicy deliveryPolicy) {
+        checkNotStarted();
+        this.deliveryPolicy = deliveryPolicy;
+        init();
+    }
+
+    /**
+     * 设置队列大小，默认为50，需在启动前设置
+     * @param queueSize 队列大小
+     */
+    public void setQueueSize(int queueSize) {
+        checkNotStarted();
+        this.queueSize = queueSize;
+        init();
+    }
+
+    /**
+     * 已丢弃的帧的数量
+     * @return 数量
+     */
+    public long getDroppedFrames() {
+        return frameQueue.getDropped();
+    }
+
+    /**
+     * 设置指标，默认不注册到JMX，需在启动前设置
+     * @param metrics 指标
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        checkNotStarted();
+        this.metrics = metrics;
+        metrics.bindQueue(frameQueue);
+    }
+
+    /**
+     * 获取指标
+     * @return 指标
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 设置是否使用NIO解码，默认为true
+     * @param nio true 通过SocketChannel解码 false 通过InputStream解码
+     */
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    /**
+     * 设置帧缓冲池，默认为堆内缓冲池
+     * @param framePool 帧缓冲池
+     */
+    public void setFramePool(FramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * 设置最大帧长度，超过时断开重连
+     * @param maxFrameSize 最大帧长度
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * 设置事件循环，多个客户端共享少量线程非阻塞读取，需在启动前设置。
+     * 事件循环中不能阻塞，不支持BLOCK投递策略
+     * @param eventLoopGroup 事件循环
+     */
+    public void setEventLoopGroup(MinicapEventLoopGroup eventLoopGroup) {
+        checkNotStarted();
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * 是否运行
+     * @return true 已运行 false 未运行
+     */
+    public boolean isRunning() {
+        return this.isRunning.get();
+    }
+
+    /**
+     * 断开当前连接，随后自动重连。用于连接仍然存在但不再收到帧的情况
+     */
+    public void reconnect() {
+        Socket socket = this.socket;
+        if (socket == null || !isRunning()) {
+            return;
+        }
+        log.info("断开与Minicap服务端的连接并重连");
+        try {
+            // 读取返回-1，阻塞读取和事件循环都按连接中断处理
+            socket.shutdownInput();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(socket);
+        }
     }
 
     @Override
     public void close() {
-        this.isRunning.set(false);
+        boolean running = this.isRunning.getAndSet(false);
         IOUtils.closeQuietly(this.socket);
+        if (eventLoopGroup != null) {
+            if (running) {
+                // 关闭通道后选择键被取消，事件循环不再处理该连接，由事件循环释放未读取完成的帧
+                Executor loop = this.eventLoop;
+                if (loop != null) {
+                    loop.execute(this::releaseDecoder);
+                }
+                closed();
+            }
+            return;
+        }
         this.interrupt();
+        Thread current = this.runner;
+        if (current != null && current != this) {
+            current.interrupt();
+        }
     }
 
     @Override
     public synchronized void start() {
+        if (eventLoopGroup != null) {
+            startEventLoop();
+            return;
+        }
         if (this.isRunning.get()) {
             throw new IllegalStateException("Minicap客户端已运行");
         } else {
@@ -87,41 +364,179 @@ public class MinicapClient extends Thread implements Closeable {
         super.start();
     }
 
+    /**
+     * 在指定的线程池中运行，不单独创建线程
+     * @param executor 线程池
+     */
+    public synchronized void start(Executor executor) {
+        if (eventLoopGroup != null) {
+            startEventLoop();
+            return;
+        }
+        if (!this.isRunning.compareAndSet(false, true)) {
+            throw new IllegalStateException("Minicap客户端已运行");
+        }
+        try {
+            executor.execute(this::run);
+        } catch (RuntimeException e) {
+            this.isRunning.set(false);
+            throw e;
+        }
+    }
+
     @Override
     public void run() {
+        this.runner = Thread.currentThread();
         log.info("Minicap客户端启动中...");
         while (this.isRunning.get()) {
+            SocketChannel channel = null;
             try {
-                this.socket = new Socket(host, port);
+                if (nio) {
+                    channel = SocketChannel.open(new InetSocketAddress(host, port));
+                    this.socket = channel.socket();
+                } else {
+                    this.socket = new Socket(host, port);
+                }
             } catch (IOException e) {
                 log.warn("连接到Minicap服务端失败，稍后重试");
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignore) {
-                }
+                sleepBeforeReconnect();
                 continue;
             }
             // 开始运行minicap客户端
             try {
+                countConnection();
                 reset();
-                InputStream inputStream = socket.getInputStream();
-                handleServerResponse(inputStream);
+                if (channel != null) {
+                    handleServerResponse(channel);
+                } else {
+                    InputStream inputStream = socket.getInputStream();
+                    handleServerResponse(inputStream);
+                }
                 log.info("与Minicap服务端连接中断");
             } catch (Exception e) {
                 log.error("Minicap客户端运行错误", e);
             } finally {
                 IOUtils.closeQuietly(this.socket);
             }
+            // 端口转发在minicap就绪前也会接受连接，随后立即断开
+            sleepBeforeReconnect();
         }
 
-        // 中断正在获取帧的线程
-        if (takeThread != null) {
-            takeThread.interrupt();
-        }
         this.isRunning.set(false);
+        this.runner = null;
+        // 释放未读取完成的帧
+        if (decoder != null) {
+            decoder.reset();
+        }
+        closed();
+    }
+
+    /**
+     * 重连前等待，间隔从10毫秒开始翻倍，最长1秒
+     */
+    private void sleepBeforeReconnect() {
+        if (!this.isRunning.get()) {
+            return;
+        }
+        try {
+            Thread.sleep(backoff.next());
+        } catch (InterruptedException ignore) {
+        }
+    }
+
+    /**
+     * 下次重连的间隔
+     * @return 间隔(毫秒)
+     */
+    long nextReconnectDelay() {
+        return backoff.next();
+    }
+
+    /**
+     * 收到Banner，minicap已就绪
+     */
+    private void bannerReceived() {
+        backoff.reset();
+    }
+
+    /**
+     * 在事件循环中运行
+     */
+    private void startEventLoop() {
+        if (deliveryPolicy == DeliveryPolicy.BLOCK) {
+            throw new IllegalStateException("事件循环不支持BLOCK投递策略");
+        }
+        if (!this.isRunning.compareAndSet(false, true)) {
+            throw new IllegalStateException("Minicap客户端已运行");
+        }
+        log.info("Minicap客户端启动中...");
+        eventLoopGroup.register(this);
+    }
+
+    /**
+     * 设置帧的直接接收者，设置后帧不进入队列，在接收线程(事件循环)中调用，返回后释放帧。
+     * 接收者不能阻塞，否则影响同一事件循环中的其他连接
+     * @param frameSink 接收者，为null时放入队列
+     */
+    public void setFrameSink(FrameListener frameSink) {
+        this.frameSink = frameSink;
+    }
+
+    /**
+     * 设置所在的事件循环
+     * @param eventLoop 事件循环
+     */
+    void setEventLoop(Executor eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * 在事件循环中释放解码器中未读取完成的帧
+     */
+    private void releaseDecoder() {
+        if (!isRunning() && decoder != null) {
+            decoder.reset();
+        }
+    }
+
+    /**
+     * 已关闭，释放队列中的帧并唤醒等待的消费者
+     */
+    private void closed() {
+        // 释放队列中的帧
+        frameQueue.clear();
+        // 等待的消费者被唤醒后抛出IllegalStateException
+        signalAvailable();
         log.info("Minicap客户端已关闭！");
     }
 
+    /**
+     * 获取服务端地址
+     * @return 服务端地址
+     */
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(host, port);
+    }
+
+    /**
+     * 事件循环中连接成功
+     * @param channel 通道
+     */
+    void connected(SocketChannel channel) {
+        this.socket = channel.socket();
+        countConnection();
+        reset();
+    }
+
+    /**
+     * 记录连接，第一次之后的连接计为重连
+     */
+    private void countConnection() {
+        if (++connections > 1) {
+            metrics.reconnected();
+        }
+    }
+
     /**
      * 处理服务端响应
      */
@@ -151,7 +566,7 @@ public class MinicapClient extends Thread implements Closeable {
                         byte[] subByte = ArrayUtils.subarray(chunk, cursor, cursor + frameBodyLength);
                         frameBody = ArrayUtils.addAll(frameBody, subByte);
                         // 获取到一帧
-                        offer(frameBody);
+                        offer(Frame.wrap(frameBody));
                         cursor += frameBodyLength;
                         frameBodyLength = readFrameBytes = 0;
                         frameBody = new byte[0];
@@ -167,6 +582,39 @@ public class MinicapClient extends Thread implements Closeable {
         }
     }
 
+    /**
+     * 处理服务端响应，帧按最终长度分配并原地填充
+     */
+    protected void handleServerResponse(ReadableByteChannel channel) throws IOException {
+        FrameDecoder decoder = decoder();
+        int len = 0;
+        while (len >= 0) {
+            len = decoder.read(channel);
+        }
+    }
+
+    /**
+     * 获取NIO解码器
+     * @return 解码器
+     */
+    protected FrameDecoder decoder() {
+        if (decoder == null || decoder.getMaxFrameSize() != maxFrameSize) {
+            decoder = new FrameDecoder(maxFrameSize, FrameDecoder.DEFAULT_BUFFER_SIZE, framePool, new FrameDecoder.Handler() {
+                @Override
+                public void onBanner(Banner banner) {
+                    MinicapClient.this.banner = banner;
+                    bannerReceived();
+                }
+
+                @Override
+                public void onFrame(Frame frame) {
+                    offer(frame);
+                }
+            });
+        }
+        return decoder;
+    }
+
     /**
      * 解析Banner
      */
@@ -242,18 +690,38 @@ public class MinicapClient extends Thread implements Closeable {
         readBannerBytes ++;
         if (readBannerBytes == bannerLength) {
             log.info("Banner: {}", banner);
+            bannerReceived();
         }
     }
 
     /**
      * 将一帧放入到队列
      */
-    protected void offer(byte[] frame) {
-        if (frameQueue.size() >= queueSize) {
-            frameQueue.poll();
-            log.debug("存放帧的队列已满，将会抛弃最旧的一帧");
+    protected void offer(Frame frame) {
+        if (frame.getNanoTime() == 0) {
+            frame.setNanoTime(System.nanoTime());
+        }
+        metrics.frameReceived(frame.length());
+        firstFrame.countDown();
+        FrameListener sink = this.frameSink;
+        if (sink != null) {
+            try {
+                sink.onFrame(frame);
+            } catch (Exception e) {
+                log.error("帧投递失败 frame: {}", frame, e);
+            } finally {
+                frame.release();
+            }
+            return;
+        }
+        try {
+            frameQueue.offer(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (waiters.get() > 0) {
+            signalAvailable();
         }
-        frameQueue.offer(frame);
     }
 
     /**
@@ -265,12 +733,23 @@ public class MinicapClient extends Thread implements Closeable {
         }
     }
 
+    /**
+     * 检查是否未启动
+     */
+    protected void checkNotStarted() {
+        if (this.isRunning.get()) {
+            throw new IllegalStateException("Minicap客户端已运行");
+        }
+    }
+
     /**
      * 初始化
      */
     protected void init() {
-        this.frameQueue = new LinkedBlockingQueue<>(queueSize);
-
+        this.frameQueue = deliveryPolicy.newQueue(queueSize);
+        if (metrics != null) {
+            metrics.bindQueue(frameQueue);
+        }
     }
 
     /**
@@ -282,6 +761,9 @@ public class MinicapClient extends Thread implements Closeable {
         this.bannerLength = 2;
         this.readFrameBytes = 0;
         this.frameBodyLength = 0;
+        if (this.decoder != null) {
+            this.decoder.reset();
+        }
     }
 
 }
@@ -0,0 +1,278 @@
+package org.cuiyang.minicap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minicap 事件循环组
+ * <p>
+ * 少量固定的线程各持有一个Selector，以非阻塞方式服务大量Minicap连接。
+ * 每个连接的解码状态保存在各自客户端的{@link FrameDecoder}中，连接断开后由事件循环按指数退避重连。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class MinicapEventLoopGroup implements Closeable {
+
+    /** 每次就绪时单个连接最多读取的次数，避免一个连接占满事件循环 */
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 每个CPU核心一个事件循环
+     */
+    public MinicapEventLoopGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MinicapEventLoopGroup(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads必须大于0");
+        }
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            try {
+                loops[i] = new EventLoop("minicap-event-loop-" + i);
+            } catch (IOException e) {
+                for (int j = 0; j < i; j++) {
+                    loops[j].close();
+                }
+                throw new IllegalStateException("创建事件循环失败", e);
+            }
+            loops[i].start();
+        }
+    }
+
+    /**
+     * 注册客户端，轮询分配到事件循环
+     * @param client 客户端
+     */
+    void register(MinicapClient client) {
+        EventLoop loop = loops[Math.abs(next.getAndIncrement() % loops.length)];
+        client.setEventLoop(loop);
+        loop.execute(() -> loop.connect(client));
+    }
+
+    /**
+     * 事件循环线程数
+     * @return 线程数
+     */
+    public int getThreads() {
+        return loops.length;
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    /**
+     * 单个事件循环
+     */
+    private static class EventLoop extends Thread implements Executor, Closeable {
+
+        private final Selector selector;
+        /** 其他线程提交的任务 */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /** 定时任务，只在事件循环线程中访问 */
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    long timeout = runTimers();
+                    if (tasks.isEmpty()) {
+                        selector.select(timeout);
+                    } else {
+                        selector.selectNow();
+                    }
+                    runTasks();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                } catch (Exception e) {
+                    log.error("事件循环运行错误", e);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                IOUtils.closeQuietly(key.channel());
+            }
+            IOUtils.closeQuietly(selector);
+        }
+
+        @Override
+        public void close() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * 发起非阻塞连接
+         */
+        void connect(MinicapClient client) {
+            if (!client.isRunning()) {
+                return;
+            }
+            SocketChannel channel = null;
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                if (channel.connect(client.getAddress())) {
+                    client.connected(channel);
+                    if (!client.isRunning()) {
+                        // 连接过程中客户端已关闭
+                        IOUtils.closeQuietly(channel);
+                        return;
+                    }
+                    channel.register(selector, SelectionKey.OP_READ, client);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, client);
+                }
+            } catch (IOException e) {
+                IOUtils.closeQuietly(channel);
+                reconnect(client);
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            MinicapClient client = (MinicapClient) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                if (!key.isValid()) {
+                    disconnected(key, client);
+                    return;
+                }
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    client.connected(channel);
+                    if (!client.isRunning()) {
+                        // 连接过程中客户端已关闭
+                        disconnected(key, client);
+                        return;
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                if (key.isReadable()) {
+                    FrameDecoder decoder = client.decoder();
+                    for (int i = 0; i < MAX_READS_PER_SELECT; i++) {
+                        int len = decoder.read(channel);
+                        if (len < 0) {
+                            log.info("与Minicap服务端连接中断");
+                            disconnected(key, client);
+                            return;
+                        }
+                        if (len == 0) {
+                            break;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (client.isRunning()) {
+                    log.warn("Minicap连接错误: {}", e.getMessage());
+                }
+                disconnected(key, client);
+            }
+        }
+
+        private void disconnected(SelectionKey key, MinicapClient client) {
+            key.cancel();
+            IOUtils.closeQuietly(key.channel());
+            if (client.isRunning()) {
+                reconnect(client);
+            } else {
+                // 释放未读取完成的帧
+                client.decoder().reset();
+            }
+        }
+
+        private void reconnect(MinicapClient client) {
+            if (client.isRunning()) {
+                log.warn("连接到Minicap服务端失败，稍后重试");
+                timers.add(new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(client.nextReconnectDelay()),
+                        () -> connect(client)));
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("事件循环任务运行错误", e);
+                }
+            }
+        }
+
+        /**
+         * 运行到期的定时任务
+         * @return 距离下一个定时任务的毫秒数，0表示没有定时任务
+         */
+        private long runTimers() {
+            long now = System.nanoTime();
+            Timer timer;
+            while ((timer = timers.peek()) != null && timer.deadline <= now) {
+                timers.poll();
+                timer.task.run();
+            }
+            if (timer == null) {
+                return 0;
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timer.deadline - now));
+        }
+    }
+
+    /**
+     * 定时任务
+     */
+    private static class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.compare(deadline, o.deadline);
+        }
+    }
+}
@@ -4,15 +4,19 @@ import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.cuiyang.minicap.ddmlib.DdmlibUtils;
+import org.cuiyang.minicap.ddmlib.CapabilityCache;
+import org.cuiyang.minicap.ddmlib.DeviceInfo;
+import org.cuiyang.minicap.ddmlib.InstallCache;
 import org.cuiyang.minicap.ddmlib.PhysicalSize;
+import org.cuiyang.minicap.metrics.FrameMetrics;
 
 import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.cuiyang.minicap.util.ResourceUtils.getResourceAsStream;
-
 /**
  * Minicap server
  *
@@ -40,6 +44,10 @@ public class MinicapServer extends Thread implements Closeable {
     private IDevice device;
     /** 端口 */
     private int port = 1717;
+    /** minicap监听的socket名称 */
+    private String socketName = "minicap";
+    /** 端口转发已移交给新的Minicap服务，关闭时不移除 */
+    private volatile boolean handedOver = false;
     /** 缩放 */
     private float zoom = 1;
     /** 旋转 0|90|180|270 */
@@ -50,6 +58,14 @@ public class MinicapServer extends Thread implements Closeable {
     private AtomicBoolean isRunning = new AtomicBoolean(false);
     /** 是否重启 */
     private AtomicBoolean restart = new AtomicBoolean(false);
+    /** 重启前是否重新部署 */
+    private AtomicBoolean redeploy = new AtomicBoolean(false);
+    /** 指标 */
+    private FrameMetrics metrics;
+    /** 安装缓存 */
+    private InstallCache installCache = InstallCache.getDefault();
+    /** 设备信息缓存 */
+    private CapabilityCache capabilityCache = CapabilityCache.getDefault();
 
     public MinicapServer(IDevice device) {
         super("minicap-server");
@@ -100,6 +116,54 @@ public class MinicapServer extends Thread implements Closeable {
         this.quality = quality;
     }
 
+    /**
+     * 设置安装缓存，默认为全局共享的缓存
+     * @param installCache 安装缓存
+     */
+    public void setInstallCache(InstallCache installCache) {
+        this.installCache = installCache;
+    }
+
+    /**
+     * 设置设备信息缓存，默认为全局共享并持久化到 ~/.minicap 的缓存
+     * @param capabilityCache 设备信息缓存
+     */
+    public void setCapabilityCache(CapabilityCache capabilityCache) {
+        this.capabilityCache = capabilityCache;
+    }
+
+    /**
+     * 设置minicap监听的socket名称，默认为minicap。新旧服务使用不同的名称时可同时运行，需在启动前设置
+     * @param socketName socket名称
+     */
+    public void setSocketName(String socketName) {
+        this.socketName = socketName;
+    }
+
+    /**
+     * 沿用另一个Minicap服务已获取的abi和api，屏幕尺寸可能已通过wm size修改，启动时重新获取
+     * @param other 另一个Minicap服务
+     */
+    void inheritDeviceInfo(MinicapServer other) {
+        this.abi = other.abi;
+        this.api = other.api;
+    }
+
+    /**
+     * 端口转发已指向新的Minicap服务，关闭时不再移除端口转发
+     */
+    void handOver() {
+        this.handedOver = true;
+    }
+
+    /**
+     * 设置指标，记录Minicap服务重启次数
+     * @param metrics 指标
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * 重启
      */
@@ -107,43 +171,97 @@ public class MinicapServer extends Thread implements Closeable {
         this.restart.set(true);
     }
 
+    /**
+     * 重新部署：重新获取设备信息、推送minicap并转发端口后重启，用于屏幕变化等导致minicap无响应的情况
+     */
+    public synchronized void redeploy() {
+        this.redeploy.set(true);
+        this.restart.set(true);
+    }
+
     @Override
     public synchronized void start() {
+        prepare();
+        super.start();
+    }
+
+    /**
+     * 在指定的线程池中运行，不单独创建线程
+     * @param executor 线程池
+     */
+    public synchronized void start(Executor executor) {
+        prepare();
+        try {
+            executor.execute(this::run);
+        } catch (RuntimeException e) {
+            this.isRunning.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * 推送minicap并转发端口
+     */
+    private void prepare() {
         if (this.isRunning.get()) {
             throw new IllegalStateException("Minicap服务已运行");
         } else {
             this.isRunning.set(true);
         }
         try {
-            // push minicap
-            String minicapPath = getMinicapPath();
-            log.info("推送文件 local: {}, remote: {}", minicapPath, MINICAP_TMP_DIR);
-            DdmlibUtils.pushFile(device, getResourceAsStream(minicapPath), MINICAP_TMP_DIR, "777");
-
-            // push minicap-nopie
-            String minicapNopiePath = getMinicapNopiePath();
-            log.info("推送文件 local: {}, remote: {}", minicapNopiePath, MINICAP_NOPIE_TMP_DIR);
-            DdmlibUtils.pushFile(device, getResourceAsStream(minicapNopiePath), MINICAP_NOPIE_TMP_DIR, "777");
-
-            // push minicap.so
-            String minicapSoPath = getMinicapSoPath();
-            log.info("推送文件 local: {}, remote: {}", minicapSoPath, MINICAP_SO_TMP_DIR);
-            DdmlibUtils.pushFile(device, getResourceAsStream(minicapSoPath), MINICAP_SO_TMP_DIR, "777");
+            // push minicap, minicap-nopie, minicap.so
+            installCache.install(device, binaries());
 
             // forward port
-            device.createForward(port, "minicap", IDevice.DeviceUnixSocketNamespace.ABSTRACT);
-            log.info("端口转发 tcp:{} localabstract:minicap", port);
+            forward();
         } catch (Exception e) {
-            throw new IllegalStateException("Minicap服务启动失败");
+            this.isRunning.set(false);
+            throw new IllegalStateException("Minicap服务启动失败", e);
         }
-        super.start();
+    }
+
+    private List<InstallCache.Binary> binaries() throws Exception {
+        return Arrays.asList(
+                new InstallCache.Binary(getMinicapPath(), MINICAP_TMP_DIR, "777"),
+                new InstallCache.Binary(getMinicapNopiePath(), MINICAP_NOPIE_TMP_DIR, "777"),
+                new InstallCache.Binary(getMinicapSoPath(), MINICAP_SO_TMP_DIR, "777"));
+    }
+
+    /**
+     * 重新部署，设备信息可能已变化
+     */
+    private void deploy() throws Exception {
+        capabilityCache.invalidate(device.getSerialNumber());
+        this.abi = null;
+        this.api = 0;
+        this.size = null;
+        installCache.install(device, binaries(), true);
+        forward();
+        log.info("Minicap服务已重新部署");
+    }
+
+    /**
+     * 转发端口，同一端口已有转发时替换，已建立的连接不受影响
+     * @throws Exception 转发失败
+     */
+    void forward() throws Exception {
+        device.createForward(port, socketName, IDevice.DeviceUnixSocketNamespace.ABSTRACT);
+        log.info("端口转发 tcp:{} localabstract:{}", port, socketName);
     }
 
     @Override
     public void run() {
         log.info("Minicap服务已启动");
+        boolean started = false;
         while (this.isRunning.get()) {
+            if (started && metrics != null) {
+                metrics.serverRestarted();
+            }
+            started = true;
             try {
+                if (redeploy.getAndSet(false)) {
+                    deploy();
+                }
                 // run minicap server
                 String command = getCommand();
                 log.info("拉起Minicap服务 command: {}", command);
@@ -174,10 +292,12 @@ public class MinicapServer extends Thread implements Closeable {
                 log.error("Minicap服务运行异常", e);
             }
         }
-        try {
-            device.removeForward(port, "minicap", IDevice.DeviceUnixSocketNamespace.ABSTRACT);
-        } catch (Exception e) {
-            log.error("移除端口转发失败. port: {}", e, port);
+        if (!handedOver) {
+            try {
+                device.removeForward(port, socketName, IDevice.DeviceUnixSocketNamespace.ABSTRACT);
+            } catch (Exception e) {
+                log.error("移除端口转发失败. port: {}", e, port);
+            }
         }
         this.isRunning.set(false);
         log.info("Minicap服务已关闭");
@@ -190,7 +310,7 @@ public class MinicapServer extends Thread implements Closeable {
      */
     protected String getAbi() throws Exception {
         if (abi == null) {
-            abi = DdmlibUtils.getAbi(device);
+            loadDeviceInfo();
         }
         return abi;
     }
@@ -202,23 +322,34 @@ public class MinicapServer extends Thread implements Closeable {
      */
     protected int getApi() throws Exception {
         if (api == 0) {
-            api = DdmlibUtils.getApi(device);
+            loadDeviceInfo();
         }
         return api;
     }
 
     /**
-     * 获取屏幕支持
+     * 获取屏幕尺寸，设置了wm size时为设置的尺寸
      * @return PhysicalSize
      * @throws Exception 获取失败
      */
     protected PhysicalSize getSize() throws Exception {
         if (size == null) {
-            size = DdmlibUtils.getPhysicalSize(device);
+            loadDeviceInfo();
         }
         return size;
     }
 
+    /**
+     * 从设备信息缓存中获取abi和api并重新获取屏幕尺寸，一次shell调用
+     * @throws Exception 获取失败
+     */
+    private void loadDeviceInfo() throws Exception {
+        DeviceInfo info = capabilityCache.get(device);
+        this.abi = info.getAbi();
+        this.api = info.getApi();
+        this.size = info.getDisplaySize();
+    }
+
     /**
      * Get display projection (<w>x<h>@<w>x<h>/{0|90|180|270})
      * @return Display projection
@@ -234,7 +365,8 @@ public class MinicapServer extends Thread implements Closeable {
      * @return shell命令
      */
     protected String getCommand() throws Exception {
-        return String.format("LD_LIBRARY_PATH=/data/local/tmp /data/local/tmp/minicap -P %s -Q %s", getProjection(), quality);
+        return String.format("LD_LIBRARY_PATH=/data/local/tmp /data/local/tmp/minicap -n %s -P %s -Q %s",
+                socketName, getProjection(), quality);
     }
 
     /**
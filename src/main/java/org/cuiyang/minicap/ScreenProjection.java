@@ -3,9 +3,20 @@ package org.cuiyang.minicap;
 import com.android.ddmlib.IDevice;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FrameDeduplicator;
+import org.cuiyang.minicap.frame.FramePool;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.hub.FramePublisher;
+import org.cuiyang.minicap.hub.ListenerErrorHandler;
+import org.cuiyang.minicap.hub.RateLimit;
+import org.cuiyang.minicap.hub.Subscription;
+import org.cuiyang.minicap.metrics.FrameMetrics;
 
 import java.io.Closeable;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 屏幕映射
@@ -23,14 +34,255 @@ public class ScreenProjection extends Thread implements Closeable {
     /** -Q <value>: JPEG quality (0-100) */
     private int quality = 100;
 
+    /** Minicap服务的主机 */
+    private String host = "localhost";
+    /** Minicap服务的端口 */
+    private int port = 1717;
+
     private IDevice device;
-    private MinicapServer server;
-    private MinicapClient client;
-    private ScreenListener listener;
+    private volatile MinicapServer server;
+    private volatile MinicapClient client;
+    /** 主监听的订阅 */
+    private Subscription listenerSubscription;
+    private final Object listenerLock = new Object();
+    /** 帧广播，多个订阅者共享同一设备的帧 */
+    private final FrameHub hub = new FrameHub();
+    /** 帧缓冲池 */
+    private FramePool framePool = FramePool.getDefault();
+    /** 投递策略 */
+    private DeliveryPolicy deliveryPolicy = DeliveryPolicy.DROP_OLDEST;
+    /** 运行Minicap服务的线程池，为null时单独创建线程 */
+    private Executor serverExecutor;
+    /** 运行Minicap客户端的线程池，为null时单独创建线程 */
+    private Executor clientExecutor;
+    /** Minicap客户端的事件循环，优先于clientExecutor */
+    private MinicapEventLoopGroup eventLoopGroup;
+    /** 指标 */
+    private FrameMetrics metrics = new FrameMetrics();
+    /** 重新配置的锁 */
+    private final Object reconfigureLock = new Object();
+    /** 重新配置的次数，用于生成socket名称 */
+    private int generation;
+    /** 重新配置等待新服务第一帧的超时时间(毫秒) */
+    private long reconfigureTimeoutMillis = 10000;
+    /** 重复帧过滤，为null时不过滤 */
+    private volatile FrameDeduplicator deduplicator;
+    /** 最近一帧 */
+    private Frame lastFrame;
+    private final Object lastFrameLock = new Object();
+
+    public ScreenProjection(IDevice device) {
+        this.device = device;
+    }
 
     public ScreenProjection(IDevice device, ScreenListener listener) {
         this.device = device;
-        this.listener = listener;
+        setScreenListener(listener);
+    }
+
+    /**
+     * 直接连接已运行的Minicap服务，不启动设备上的服务
+     * @param host 主机
+     * @param port 端口
+     */
+    public ScreenProjection(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 设置屏幕监听，每帧拷贝一次。与订阅者一样在投递线程中调用，处理不及时时丢弃最旧的帧
+     * @param listener 屏幕监听
+     */
+    public void setScreenListener(ScreenListener listener) {
+        setFrameListener(listener == null ? null : FrameListener.copying(listener));
+    }
+
+    /**
+     * 设置帧监听，帧不拷贝，直接使用缓冲池中的缓冲区。与订阅者一样在投递线程中调用，处理不及时时丢弃最旧的帧
+     * @param listener 帧监听
+     */
+    public void setFrameListener(FrameListener listener) {
+        setFrameListener(listener, DeliveryPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * 设置帧监听，替换之前设置的监听
+     * @param listener 帧监听，为null时取消
+     * @param policy 投递策略
+     */
+    public void setFrameListener(FrameListener listener, DeliveryPolicy policy) {
+        synchronized (listenerLock) {
+            if (listenerSubscription != null) {
+                listenerSubscription.close();
+                listenerSubscription = null;
+            }
+            if (listener != null) {
+                listenerSubscription = hub.subscribe(listener, policy);
+                listenerSubscription.setMetrics(metrics);
+            } else {
+                metrics.bindListenerQueue(null);
+            }
+        }
+    }
+
+    /**
+     * 设置投递线程池，可使用{@link org.cuiyang.minicap.util.VirtualThreads}创建的虚拟线程池
+     * @param executor 线程池
+     */
+    public void setDispatchExecutor(Executor executor) {
+        hub.setExecutor(executor);
+    }
+
+    /**
+     * 设置监听异常处理，默认记录日志
+     * @param errorHandler 异常处理
+     */
+    public void setListenerErrorHandler(ListenerErrorHandler errorHandler) {
+        hub.setErrorHandler(errorHandler);
+    }
+
+    /**
+     * 订阅帧，可在运行期间随时订阅和取消，帧在订阅者之间共享不拷贝
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @return 订阅，调用close取消订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy) {
+        return hub.subscribe(listener, policy);
+    }
+
+    /**
+     * 订阅帧并限制帧率，超出的帧在进入订阅的队列之前丢弃
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @param rateLimit 帧率上限
+     * @return 订阅，调用close取消订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy, RateLimit rateLimit) {
+        return hub.subscribe(listener, policy, rateLimit);
+    }
+
+    /**
+     * 设置是否过滤重复帧，开启后画面不变期间每秒通过{@link FrameListener#onUnchanged(long)}发送一次心跳
+     * @param deduplicate true 过滤字节完全一致的重复帧
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        if (deduplicate) {
+            FrameDeduplicator deduplicator = new FrameDeduplicator(hub);
+            deduplicator.setMetrics(metrics);
+            this.deduplicator = deduplicator;
+        } else {
+            this.deduplicator = null;
+        }
+    }
+
+    /**
+     * 获取重复帧过滤
+     * @return 重复帧过滤，未开启时返回null
+     */
+    public FrameDeduplicator getDeduplicator() {
+        return deduplicator;
+    }
+
+    /**
+     * Reactive Streams发布者，按订阅者的需求投递，所有订阅者取消后关闭屏幕映射
+     * @return 发布者
+     */
+    public FramePublisher publisher() {
+        return new FramePublisher(hub, this);
+    }
+
+    /**
+     * 获取帧广播
+     * @return 帧广播
+     */
+    public FrameHub getHub() {
+        return hub;
+    }
+
+    /**
+     * 设置Minicap服务的端口，默认为1717。同一主机上的多个设备需使用不同的端口
+     * @param port 端口
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * 获取Minicap服务的端口
+     * @return 端口
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * 设置运行Minicap服务和客户端的线程池，默认为每个服务和客户端单独创建线程
+     * @param serverExecutor 运行Minicap服务的线程池
+     * @param clientExecutor 运行Minicap客户端的线程池
+     */
+    public void setExecutors(Executor serverExecutor, Executor clientExecutor) {
+        this.serverExecutor = serverExecutor;
+        this.clientExecutor = clientExecutor;
+    }
+
+    /**
+     * 设置Minicap客户端的事件循环，多台设备共享少量线程读取帧。
+     * 帧在事件循环中直接投递给订阅者，不占用映射循环的线程，BLOCK策略的订阅会阻塞事件循环
+     * @param eventLoopGroup 事件循环
+     */
+    public void setEventLoopGroup(MinicapEventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * 设置指标，通过{@link org.cuiyang.minicap.metrics.MetricsRegistry#register(String)}创建的指标可在JMX中查看
+     * @param metrics 指标
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+        synchronized (listenerLock) {
+            if (listenerSubscription != null) {
+                listenerSubscription.setMetrics(metrics);
+            }
+        }
+        FrameDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator != null) {
+            deduplicator.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * 获取指标
+     * @return 指标
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 在指定的线程池中运行，不单独创建线程。设置了事件循环时启动服务和客户端后即释放线程
+     * @param executor 线程池
+     */
+    public void start(Executor executor) {
+        executor.execute(this::run);
+    }
+
+    /**
+     * 设置投递策略，默认为DROP_OLDEST。交互式远程控制建议使用CONFLATE，总是获取最新的一帧
+     * @param deliveryPolicy 投递策略
+     */
+    public void setDeliveryPolicy(DeliveryPolicy deliveryPolicy) {
+        this.deliveryPolicy = deliveryPolicy;
+    }
+
+    /**
+     * 设置帧缓冲池，默认为堆内缓冲池
+     * @param framePool 帧缓冲池
+     */
+    public void setFramePool(FramePool framePool) {
+        this.framePool = framePool;
     }
 
     /**
@@ -41,6 +293,10 @@ public class ScreenProjection extends Thread implements Closeable {
         this.zoom = zoom;
     }
 
+    public float getZoom() {
+        return zoom;
+    }
+
     /**
      * 设置旋转角度，默认为0不旋转
      * @param rotate 旋转角度
@@ -57,53 +313,252 @@ public class ScreenProjection extends Thread implements Closeable {
         this.quality = quality;
     }
 
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 断开客户端连接后重连，不重启Minicap服务
+     */
+    public void reconnect() {
+        MinicapClient client = this.client;
+        if (client != null) {
+            client.reconnect();
+        }
+    }
+
     /**
      * 重启
      */
     public void restart() {
+        if (this.server == null) {
+            return;
+        }
         this.server.setZoom(zoom);
         this.server.setRotate(rotate);
         this.server.setQuality(quality);
         this.server.restart();
     }
 
-    private void startServer() throws TimeoutException, InterruptedException {
-        this.server = new MinicapServer(device, 1717);
-        this.server.setZoom(zoom);
-        this.server.setRotate(rotate);
-        this.server.setQuality(quality);
-        this.server.start();
+    /**
+     * 重新获取设备信息、推送minicap后重启Minicap服务，直接连接Minicap服务时只重连
+     */
+    public void redeploy() {
+        MinicapServer server = this.server;
+        if (server == null) {
+            reconnect();
+            return;
+        }
+        server.setZoom(zoom);
+        server.setRotate(rotate);
+        server.setQuality(quality);
+        server.redeploy();
     }
 
-    private void startClient() {
-        this.client = new MinicapClient(1717);
-        this.client.start();
+    /**
+     * 设置重新配置等待新服务第一帧的超时时间，默认为10秒
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     */
+    public void setReconfigureTimeout(long timeout, TimeUnit unit) {
+        this.reconfigureTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * 无缝重新配置，应用当前的缩放、旋转和质量
+     * <p>
+     * 先以新的socket名称启动新的Minicap服务，端口转发指向新服务，已建立的连接仍读取原服务的帧；
+     * 新的客户端收到第一帧后才切换并关闭原服务和原客户端，期间订阅者持续收到原服务的帧。
+     * 超时未收到新服务的帧时恢复端口转发，继续使用原服务。
+     * 耗时记录在{@link FrameMetrics#getSwitchLatencyHistogram()}。
+     * @return true 已切换 false 未运行或切换失败
+     * @throws InterruptedException 等待中断
+     */
+    public boolean reconfigure() throws InterruptedException {
+        synchronized (reconfigureLock) {
+            MinicapServer oldServer = this.server;
+            MinicapClient oldClient = this.client;
+            if (oldServer == null || oldClient == null || !oldServer.isRunning()) {
+                restart();
+                return false;
+            }
+            long start = System.nanoTime();
+            MinicapServer newServer = newServer("minicap_" + (++generation));
+            newServer.inheritDeviceInfo(oldServer);
+            MinicapClient newClient = null;
+            try {
+                startServer(newServer);
+                newClient = newClient();
+                startClient(newClient);
+                if (newClient.awaitFrame(reconfigureTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    this.server = newServer;
+                    this.client = newClient;
+                    oldServer.handOver();
+                    IOUtils.closeQuietly(oldServer);
+                    IOUtils.closeQuietly(oldClient);
+                    long elapsed = System.nanoTime() - start;
+                    metrics.switched(elapsed);
+                    log.info("重新配置完成 耗时: {}ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+                    return true;
+                }
+                log.warn("重新配置超时，继续使用原Minicap服务");
+            } catch (RuntimeException e) {
+                log.warn("重新配置失败，继续使用原Minicap服务", e);
+            }
+            newServer.handOver();
+            IOUtils.closeQuietly(newServer);
+            IOUtils.closeQuietly(newClient);
+            try {
+                oldServer.forward();
+            } catch (Exception e) {
+                log.error("恢复端口转发失败", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 获取最近一帧，重新配置或重连期间可用于显示。使用完后需调用{@link Frame#release()}
+     * @return 最近一帧，还未收到帧时返回null
+     */
+    public Frame getLastFrame() {
+        synchronized (lastFrameLock) {
+            return lastFrame != null ? lastFrame.retain() : null;
+        }
+    }
+
+    private MinicapServer newServer(String socketName) {
+        MinicapServer server = new MinicapServer(device, port);
+        server.setSocketName(socketName);
+        server.setZoom(zoom);
+        server.setRotate(rotate);
+        server.setQuality(quality);
+        server.setMetrics(metrics);
+        return server;
+    }
+
+    private void startServer(MinicapServer server) {
+        if (serverExecutor != null) {
+            server.start(serverExecutor);
+        } else {
+            server.start();
+        }
+    }
+
+    private MinicapClient newClient() {
+        MinicapClient client = new MinicapClient(host, port);
+        client.setFramePool(framePool);
+        client.setDeliveryPolicy(deliveryPolicy);
+        client.setMetrics(metrics);
+        if (eventLoopGroup != null) {
+            client.setEventLoopGroup(eventLoopGroup);
+            client.setFrameSink(frame -> {
+                // 重新配置切换前后只投递当前客户端的帧
+                if (client == this.client) {
+                    deliver(frame);
+                }
+            });
+        }
+        return client;
+    }
+
+    private void startClient(MinicapClient client) {
+        if (eventLoopGroup == null && clientExecutor != null) {
+            client.start(clientExecutor);
+        } else {
+            client.start();
+        }
     }
 
     @Override
     public void run() {
+        boolean eventLoop = false;
         try {
-            startServer();
-            startClient();
+            if (device != null) {
+                this.server = newServer("minicap");
+                startServer(this.server);
+            }
+            this.client = newClient();
+            startClient(this.client);
+            if (eventLoopGroup != null) {
+                // 帧在事件循环中投递，不需要映射循环
+                eventLoop = true;
+                return;
+            }
 
-            while (this.server.isRunning()) {
-                byte[] take = this.client.take();
+            while (isRunning()) {
+                MinicapClient current = this.client;
+                Frame take;
+                try {
+                    take = current.takeFrame();
+                } catch (InterruptedException | IllegalStateException e) {
+                    // 重新配置时原客户端已关闭
+                    if (current != this.client || current.isRunning()) {
+                        continue;
+                    }
+                    break;
+                }
                 try {
-                    this.listener.projection(take);
+                    deliver(take);
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    log.error("帧投递失败 frame: {}", take, e);
+                } finally {
+                    take.release();
                 }
             }
         } catch (Exception e) {
             log.error("屏幕映射失败", e);
         } finally {
-            close();
+            if (!eventLoop) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * 投递一帧，调用方持有引用
+     */
+    private void deliver(Frame frame) {
+        updateLastFrame(frame);
+        FrameDeduplicator deduplicator = this.deduplicator;
+        if (deduplicator != null) {
+            deduplicator.onFrame(frame);
+        } else {
+            hub.onFrame(frame);
         }
     }
 
+    private void updateLastFrame(Frame frame) {
+        Frame previous;
+        synchronized (lastFrameLock) {
+            previous = lastFrame;
+            lastFrame = frame.retain();
+        }
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * 是否运行
+     * @return true 已运行 false 未运行
+     */
+    public boolean isRunning() {
+        return server != null ? server.isRunning() : client != null && client.isRunning();
+    }
+
     @Override
     public void close() {
+        IOUtils.closeQuietly(hub);
         IOUtils.closeQuietly(server);
         IOUtils.closeQuietly(client);
+        Frame previous;
+        synchronized (lastFrameLock) {
+            previous = lastFrame;
+            lastFrame = null;
+        }
+        if (previous != null) {
+            previous.release();
+        }
     }
 }
@@ -0,0 +1,315 @@
+package org.cuiyang.minicap.adaptive;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.ScreenProjection;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应画质控制
+ * <p>
+ * 定时采样屏幕映射的指标，在配置的范围内调整JPEG质量和缩放比例，并通过{@link ScreenProjection#reconfigure()}无缝切换：
+ * <ul>
+ *     <li>队列丢帧、带宽超出预算或帧率低于目标时降级，先降质量，质量到下限后再降缩放</li>
+ *     <li>无丢帧且带宽和帧率都有余量时升级，先升缩放，缩放到上限后再升质量</li>
+ * </ul>
+ * 降级和升级分别需要连续多次采样满足条件，且两次调整之间有冷却时间，避免反复重启。
+ * minicap只在画面变化时输出帧，静止画面下帧率会低于目标，受限链路建议使用带宽预算。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class AdaptiveQualityController implements Runnable, Closeable {
+
+    private final ScreenProjection projection;
+
+    /** 目标帧率，0表示不限 */
+    private double targetFps = 0;
+    /** 带宽预算(字节/秒)，0表示不限 */
+    private long bandwidthBudget = 0;
+    /** 质量范围 */
+    private int minQuality = 30;
+    private int maxQuality = 100;
+    private int qualityStep = 10;
+    /** 缩放范围 */
+    private float minZoom = 0.3f;
+    private float maxZoom = 1;
+    private float zoomStep = 0.1f;
+    /** 升级时带宽和帧率需保留的余量 */
+    private double headroom = 0.3;
+    /** 降级需要连续满足条件的采样次数 */
+    private int downgradeSamples = 2;
+    /** 升级需要连续满足条件的采样次数 */
+    private int upgradeSamples = 5;
+    /** 两次调整之间的最小间隔 */
+    private long cooldownNanos = TimeUnit.SECONDS.toNanos(10);
+    /** 采样间隔 */
+    private long intervalMillis = 2000;
+
+    /** 上次采样 */
+    private long lastTime;
+    private long lastFrames;
+    private long lastBytes;
+    private long lastDropped;
+    /** 连续满足条件的采样次数 */
+    private int overloaded;
+    private int underloaded;
+    /** 上次调整的时间 */
+    private long lastAdjustTime;
+    /** 调整次数 */
+    private long adjustments;
+
+    private ScheduledExecutorService ownExecutor;
+    private ScheduledFuture<?> future;
+
+    public AdaptiveQualityController(ScreenProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * 设置目标帧率，低于目标的80%时降级
+     * @param targetFps 目标帧率，0表示不限
+     */
+    public void setTargetFps(double targetFps) {
+        this.targetFps = targetFps;
+    }
+
+    /**
+     * 设置带宽预算，超出时降级
+     * @param bytesPerSecond 字节/秒，0表示不限
+     */
+    public void setBandwidthBudget(long bytesPerSecond) {
+        this.bandwidthBudget = bytesPerSecond;
+    }
+
+    /**
+     * 设置质量范围，默认为30~100
+     * @param minQuality 最低质量
+     * @param maxQuality 最高质量
+     * @param step 每次调整的幅度
+     */
+    public void setQualityRange(int minQuality, int maxQuality, int step) {
+        if (minQuality > maxQuality || minQuality < 0 || maxQuality > 100 || step <= 0) {
+            throw new IllegalArgumentException("质量范围不合法");
+        }
+        this.minQuality = minQuality;
+        this.maxQuality = maxQuality;
+        this.qualityStep = step;
+    }
+
+    /**
+     * 设置缩放范围，默认为0.3~1
+     * @param minZoom 最小缩放
+     * @param maxZoom 最大缩放
+     * @param step 每次调整的幅度
+     */
+    public void setZoomRange(float minZoom, float maxZoom, float step) {
+        if (minZoom > maxZoom || minZoom <= 0 || step <= 0) {
+            throw new IllegalArgumentException("缩放范围不合法");
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.zoomStep = step;
+    }
+
+    /**
+     * 设置滞后参数
+     * @param downgradeSamples 降级需要连续满足条件的采样次数，默认为2
+     * @param upgradeSamples 升级需要连续满足条件的采样次数，默认为5
+     * @param cooldown 两次调整之间的最小间隔，默认为10秒
+     * @param unit 时间单位
+     */
+    public void setHysteresis(int downgradeSamples, int upgradeSamples, long cooldown, TimeUnit unit) {
+        this.downgradeSamples = downgradeSamples;
+        this.upgradeSamples = upgradeSamples;
+        this.cooldownNanos = unit.toNanos(cooldown);
+    }
+
+    /**
+     * 设置采样间隔，默认为2秒，需在启动前设置
+     * @param interval 间隔
+     * @param unit 时间单位
+     */
+    public void setInterval(long interval, TimeUnit unit) {
+        this.intervalMillis = unit.toMillis(interval);
+    }
+
+    /**
+     * 已调整的次数
+     * @return 次数
+     */
+    public long getAdjustments() {
+        return adjustments;
+    }
+
+    /**
+     * 单独创建一个线程定时采样
+     */
+    public synchronized void start() {
+        ownExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("adaptive-quality-%d").setDaemon(true).build());
+        start(ownExecutor);
+    }
+
+    /**
+     * 在指定的线程池中定时采样
+     * @param executor 线程池
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (future != null) {
+            throw new IllegalStateException("自适应画质控制已运行");
+        }
+        future = executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            ownExecutor = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            FrameMetrics metrics = projection.getMetrics();
+            sample(metrics.getFramesReceived(), metrics.getBytesReceived(), metrics.getDroppedFrames(), System.nanoTime());
+        } catch (Exception e) {
+            log.error("自适应画质控制运行错误", e);
+        }
+    }
+
+    /**
+     * 采样累计值，计算速率并调整
+     * @param frames 累计接收的帧数
+     * @param bytes 累计接收的字节数
+     * @param dropped 累计丢弃的帧数
+     * @param now 当前时间(System.nanoTime)
+     */
+    synchronized void sample(long frames, long bytes, long dropped, long now) {
+        if (lastTime == 0) {
+            lastTime = now;
+            lastFrames = frames;
+            lastBytes = bytes;
+            lastDropped = dropped;
+            lastAdjustTime = now - cooldownNanos;
+            return;
+        }
+        double seconds = (now - lastTime) / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+        double fps = (frames - lastFrames) / seconds;
+        double bytesPerSecond = (bytes - lastBytes) / seconds;
+        long drops = dropped - lastDropped;
+        lastTime = now;
+        lastFrames = frames;
+        lastBytes = bytes;
+        lastDropped = dropped;
+
+        boolean overBudget = bandwidthBudget > 0 && bytesPerSecond > bandwidthBudget;
+        boolean belowTarget = targetFps > 0 && fps > 0 && fps < targetFps * 0.8;
+        if (drops > 0 || overBudget || belowTarget) {
+            overloaded++;
+            underloaded = 0;
+        } else if ((bandwidthBudget == 0 || bytesPerSecond < bandwidthBudget * (1 - headroom))
+                && (targetFps == 0 || fps >= targetFps)) {
+            underloaded++;
+            overloaded = 0;
+        } else {
+            overloaded = 0;
+            underloaded = 0;
+        }
+
+        if (now - lastAdjustTime < cooldownNanos) {
+            return;
+        }
+        int previousQuality = projection.getQuality();
+        float previousZoom = projection.getZoom();
+        if (overloaded >= downgradeSamples) {
+            if (downgrade()) {
+                log.info("画质降级 fps: {}, bytes/s: {}, drops: {}, quality: {}, zoom: {}",
+                        Math.round(fps), Math.round(bytesPerSecond), drops, projection.getQuality(), projection.getZoom());
+                adjusted(now, previousQuality, previousZoom);
+            }
+        } else if (underloaded >= upgradeSamples) {
+            if (upgrade()) {
+                log.info("画质升级 fps: {}, bytes/s: {}, quality: {}, zoom: {}",
+                        Math.round(fps), Math.round(bytesPerSecond), projection.getQuality(), projection.getZoom());
+                adjusted(now, previousQuality, previousZoom);
+            }
+        }
+    }
+
+    /**
+     * 先降质量，再降缩放
+     */
+    private boolean downgrade() {
+        int quality = projection.getQuality();
+        if (quality > minQuality) {
+            projection.setQuality(Math.max(minQuality, Math.min(maxQuality, quality) - qualityStep));
+            return true;
+        }
+        float zoom = projection.getZoom();
+        if (zoom > minZoom) {
+            projection.setZoom(Math.max(minZoom, Math.min(maxZoom, zoom) - zoomStep));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 先升缩放，再升质量
+     */
+    private boolean upgrade() {
+        float zoom = projection.getZoom();
+        if (zoom < maxZoom) {
+            projection.setZoom(Math.min(maxZoom, Math.max(minZoom, zoom) + zoomStep));
+            return true;
+        }
+        int quality = projection.getQuality();
+        if (quality < maxQuality) {
+            projection.setQuality(Math.min(maxQuality, Math.max(minQuality, quality) + qualityStep));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 应用调整后的配置，运行中切换失败时恢复原来的质量和缩放
+     * <p>
+     * 未运行时配置在下次启动时生效，保留调整后的值。
+     */
+    private void adjusted(long now, int previousQuality, float previousZoom) {
+        lastAdjustTime = now;
+        overloaded = 0;
+        underloaded = 0;
+        boolean running = projection.isRunning();
+        boolean applied = false;
+        try {
+            applied = projection.reconfigure() || !running;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("画质调整重新配置错误", e);
+        }
+        if (applied) {
+            adjustments++;
+        } else {
+            projection.setQuality(previousQuality);
+            projection.setZoom(previousZoom);
+            log.warn("画质调整未生效，恢复 quality: {}, zoom: {}", previousQuality, previousZoom);
+        }
+    }
+}
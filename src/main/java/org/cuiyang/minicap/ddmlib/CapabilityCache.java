@@ -0,0 +1,147 @@
+package org.cuiyang.minicap.ddmlib;
+
+import com.android.ddmlib.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 设备信息缓存
+ * <p>
+ * 按设备序列号缓存{@link DdmlibUtils#probe(IDevice)}获取的abi、api和指纹并持久化到本地文件，跨进程复用。
+ * ddmlib已缓存的ro.build.fingerprint与缓存一致时只执行wm size，系统升级后指纹变化自动重新获取。
+ * 屏幕尺寸可通过wm size在运行时修改，不缓存。默认文件为 ~/.minicap/devices.properties
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class CapabilityCache {
+
+    private static final String FINGERPRINT = "ro.build.fingerprint";
+
+    private static final CapabilityCache DEFAULT = new CapabilityCache(
+            new File(System.getProperty("user.home"), ".minicap" + File.separator + "devices.properties"));
+
+    /** 持久化文件，为null时只缓存在内存中 */
+    private final File file;
+    /** 序列号 -> 设备信息 */
+    private final Map<String, DeviceInfo> cache = new HashMap<>();
+    private boolean loaded = false;
+
+    public CapabilityCache(File file) {
+        this.file = file;
+    }
+
+    public static CapabilityCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取设备信息，缓存的指纹与设备一致时只重新获取屏幕尺寸，每次都只执行一次shell命令
+     * @param device 设备
+     * @return 设备信息
+     * @throws Exception 获取失败
+     */
+    public DeviceInfo get(IDevice device) throws Exception {
+        String serial = device.getSerialNumber();
+        String fingerprint = device.getProperty(FINGERPRINT);
+        DeviceInfo cached;
+        synchronized (this) {
+            load();
+            cached = cache.get(serial);
+        }
+        if (cached != null && StringUtils.isNotEmpty(fingerprint) && fingerprint.equals(cached.getFingerprint())) {
+            DeviceInfo info = new DeviceInfo(cached.getFingerprint(), cached.getAbi(), cached.getApi(), null, null);
+            DdmlibUtils.probeSize(device, info);
+            return info;
+        }
+        DeviceInfo info = DdmlibUtils.probe(device);
+        log.info("获取设备信息 serial: {}, info: {}", serial, info);
+        synchronized (this) {
+            cache.put(serial, new DeviceInfo(info.getFingerprint(), info.getAbi(), info.getApi(), null, null));
+            save();
+        }
+        return info;
+    }
+
+    /**
+     * 移除设备信息
+     * @param serial 设备序列号
+     */
+    public synchronized void invalidate(String serial) {
+        load();
+        if (cache.remove(serial) != null) {
+            save();
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            log.warn("读取设备信息缓存失败: {}", e.getMessage());
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.endsWith(".fingerprint")) {
+                continue;
+            }
+            String serial = key.substring(0, key.length() - ".fingerprint".length());
+            try {
+                DeviceInfo info = new DeviceInfo();
+                info.setFingerprint(properties.getProperty(key));
+                info.setAbi(properties.getProperty(serial + ".abi"));
+                info.setApi(Integer.parseInt(properties.getProperty(serial + ".api")));
+                cache.put(serial, info);
+            } catch (RuntimeException e) {
+                log.warn("忽略无效的设备信息缓存 serial: {}", serial);
+            }
+        }
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, DeviceInfo> entry : cache.entrySet()) {
+            String serial = entry.getKey();
+            DeviceInfo info = entry.getValue();
+            properties.setProperty(serial + ".fingerprint", StringUtils.defaultString(info.getFingerprint()));
+            properties.setProperty(serial + ".abi", info.getAbi());
+            properties.setProperty(serial + ".api", String.valueOf(info.getApi()));
+        }
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(dir.toPath());
+            File tmp = File.createTempFile("devices", ".tmp", dir);
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                    properties.store(out, "minicap device capabilities");
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        } catch (IOException e) {
+            log.warn("保存设备信息缓存失败: {}", e.getMessage());
+        }
+    }
+}
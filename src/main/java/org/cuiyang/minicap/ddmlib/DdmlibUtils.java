@@ -52,8 +52,73 @@ public class DdmlibUtils {
      */
     public static PhysicalSize getPhysicalSize(IDevice device) throws Exception {
         String ret = command(device, "wm size");
-        String[] px = StringUtils.substringAfter(ret, "Physical size: ").split("x");
-        return new PhysicalSize(Integer.parseInt(px[0]), Integer.parseInt(px[1]));
+        PhysicalSize size = parseSize(ret, "Physical size:");
+        if (size == null) {
+            throw new DdmlibException("无法解析屏幕尺寸: " + ret);
+        }
+        return size;
+    }
+
+    /**
+     * 一次shell调用获取设备信息
+     * @param device IDevice
+     * @return 设备信息
+     */
+    public static DeviceInfo probe(IDevice device) throws Exception {
+        String ret = command(device, "echo F:$(getprop ro.build.fingerprint);"
+                + "echo A:$(getprop ro.product.cpu.abi);"
+                + "echo S:$(getprop ro.build.version.sdk);"
+                + "wm size");
+        DeviceInfo info = new DeviceInfo();
+        for (String line : StringUtils.split(StringUtils.defaultString(ret), "\r\n")) {
+            line = line.trim();
+            if (line.startsWith("F:")) {
+                info.setFingerprint(line.substring(2).trim());
+            } else if (line.startsWith("A:")) {
+                info.setAbi(line.substring(2).trim());
+            } else if (line.startsWith("S:")) {
+                info.setApi(Integer.parseInt(line.substring(2).trim()));
+            }
+        }
+        info.setPhysicalSize(parseSize(ret, "Physical size:"));
+        info.setOverrideSize(parseSize(ret, "Override size:"));
+        if (StringUtils.isEmpty(info.getAbi()) || info.getApi() == 0 || info.getPhysicalSize() == null) {
+            throw new DdmlibException("获取设备信息失败: " + ret);
+        }
+        return info;
+    }
+
+    /**
+     * 一次shell调用获取屏幕尺寸，wm size可在运行时修改，每次启动都重新获取
+     * @param device IDevice
+     * @param info 设备信息，设置物理尺寸和通过wm size设置的尺寸
+     */
+    public static void probeSize(IDevice device, DeviceInfo info) throws Exception {
+        String ret = command(device, "wm size");
+        info.setPhysicalSize(parseSize(ret, "Physical size:"));
+        info.setOverrideSize(parseSize(ret, "Override size:"));
+        if (info.getPhysicalSize() == null) {
+            throw new DdmlibException("无法解析屏幕尺寸: " + ret);
+        }
+    }
+
+    /**
+     * 解析wm size的输出，如 Physical size: 1080x1920 和 Override size: 720x1280
+     * @param output wm size的输出
+     * @param prefix 行前缀
+     * @return 尺寸，没有对应的行时返回null
+     */
+    static PhysicalSize parseSize(String output, String prefix) {
+        for (String line : StringUtils.split(StringUtils.defaultString(output), "\r\n")) {
+            line = line.trim();
+            if (line.startsWith(prefix)) {
+                String[] px = line.substring(prefix.length()).trim().split("x");
+                if (px.length == 2) {
+                    return new PhysicalSize(Integer.parseInt(px[0].trim()), Integer.parseInt(px[1].trim()));
+                }
+            }
+        }
+        return null;
     }
 
     /**
@@ -95,7 +160,7 @@ public class DdmlibUtils {
             FileUtils.copyInputStreamToFile(in, local);
             pushFile(device, local.getAbsolutePath(), remote, mode);
         } finally {
-            local.deleteOnExit();
+            FileUtils.deleteQuietly(local);
         }
     }
 }
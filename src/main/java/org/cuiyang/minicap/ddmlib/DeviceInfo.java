@@ -0,0 +1,34 @@
+package org.cuiyang.minicap.ddmlib;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 设备信息
+ *
+ * @author cuiyang
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceInfo {
+    /** 系统指纹 ro.build.fingerprint */
+    private String fingerprint;
+    /** cpu abi */
+    private String abi;
+    /** sdk api */
+    private int api;
+    /** 物理尺寸 */
+    private PhysicalSize physicalSize;
+    /** 通过wm size设置的尺寸，未设置时为null */
+    private PhysicalSize overrideSize;
+
+    /**
+     * 实际显示的尺寸，设置了wm size时为设置的尺寸
+     * @return 尺寸
+     */
+    public PhysicalSize getDisplaySize() {
+        return overrideSize != null ? overrideSize : physicalSize;
+    }
+}
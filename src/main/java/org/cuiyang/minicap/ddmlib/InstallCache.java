@@ -0,0 +1,225 @@
+package org.cuiyang.minicap.ddmlib;
+
+import com.android.ddmlib.IDevice;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.cuiyang.minicap.util.ResourceUtils.getResourceAsStream;
+
+/**
+ * 安装缓存
+ * <p>
+ * classpath中的文件每个JVM只解压一次到同一个临时目录并计算MD5，JVM退出时删除。
+ * 安装时通过一次shell调用读取设备上文件的MD5，只推送不一致的文件，多个文件并行推送，最后一次chmod。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class InstallCache {
+
+    private static final InstallCache DEFAULT = new InstallCache();
+
+    /** 推送文件的最大线程数 */
+    private static final int PUSH_THREADS = 8;
+
+    /** 推送文件的线程池，多台设备同时安装时排队推送，空闲60秒后回收 */
+    private static final ExecutorService PUSH_EXECUTOR = newPushExecutor();
+
+    /** 解压目录 */
+    private volatile File directory;
+    /** classpath路径 -> 本地文件 */
+    private final ConcurrentMap<String, LocalFile> files = new ConcurrentHashMap<>();
+
+    public static InstallCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 安装文件到设备，设备上MD5一致的文件跳过
+     * @param device 设备
+     * @param binaries 文件
+     * @return 推送的文件数
+     * @throws Exception 安装失败
+     */
+    public int install(IDevice device, List<Binary> binaries) throws Exception {
+        return install(device, binaries, false);
+    }
+
+    /**
+     * 安装文件到设备
+     * @param device 设备
+     * @param binaries 文件
+     * @param force true 不比较MD5，全部推送
+     * @return 推送的文件数
+     * @throws Exception 安装失败
+     */
+    public int install(IDevice device, List<Binary> binaries, boolean force) throws Exception {
+        Map<Binary, LocalFile> locals = new HashMap<>();
+        for (Binary binary : binaries) {
+            locals.put(binary, resolve(binary.getResource()));
+        }
+        Map<String, String> remoteMd5 = force ? new HashMap<>() : md5sum(device, binaries);
+        List<Binary> pushes = binaries.stream()
+                .filter(binary -> !locals.get(binary).getMd5().equals(remoteMd5.get(binary.getRemote())))
+                .collect(Collectors.toList());
+        if (pushes.isEmpty()) {
+            log.info("文件已是最新，跳过推送 serial: {}", device.getSerialNumber());
+            return 0;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Binary binary : pushes) {
+            String local = locals.get(binary).getFile().getAbsolutePath();
+            futures.add(CompletableFuture.runAsync(() -> {
+                log.info("推送文件 local: {}, remote: {}", binary.getResource(), binary.getRemote());
+                try {
+                    device.pushFile(local, binary.getRemote());
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, PUSH_EXECUTOR));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        StringBuilder command = new StringBuilder();
+        for (Binary binary : pushes) {
+            if (command.length() > 0) {
+                command.append(" && ");
+            }
+            command.append("chmod ").append(binary.getMode()).append(' ').append(binary.getRemote());
+        }
+        String ret = DdmlibUtils.command(device, command.toString());
+        if (StringUtils.isNotEmpty(ret)) {
+            throw new DdmlibException(ret);
+        }
+        return pushes.size();
+    }
+
+    /**
+     * 解压classpath中的文件并计算MD5，每个文件只处理一次
+     * @param resource classpath路径
+     * @return 本地文件
+     * @throws IOException 文件不存在或解压失败
+     */
+    public LocalFile resolve(String resource) throws IOException {
+        try {
+            return files.computeIfAbsent(resource, key -> {
+                try {
+                    return extract(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private LocalFile extract(String resource) throws IOException {
+        File file = new File(directory(), resource);
+        try (InputStream in = getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new FileNotFoundException(resource);
+            }
+            FileUtils.copyInputStreamToFile(in, file);
+        }
+        String md5 = com.google.common.io.Files.hash(file, Hashing.md5()).toString();
+        return new LocalFile(file, md5);
+    }
+
+    private File directory() throws IOException {
+        if (directory == null) {
+            synchronized (this) {
+                if (directory == null) {
+                    File dir = Files.createTempDirectory("minicap_").toFile();
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> FileUtils.deleteQuietly(dir)));
+                    directory = dir;
+                }
+            }
+        }
+        return directory;
+    }
+
+    private static ExecutorService newPushExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PUSH_THREADS, PUSH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("minicap-push-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 一次shell调用读取设备上文件的MD5，不支持md5sum或文件不存在时没有对应的值
+     * @return 远程路径 -> MD5
+     */
+    private static Map<String, String> md5sum(IDevice device, List<Binary> binaries) {
+        Map<String, String> result = new HashMap<>();
+        String paths = binaries.stream().map(Binary::getRemote).collect(Collectors.joining(" "));
+        String output;
+        try {
+            output = DdmlibUtils.command(device, "md5sum " + paths + " 2>/dev/null");
+        } catch (Exception e) {
+            log.warn("读取设备文件MD5失败: {}", e.getMessage());
+            return result;
+        }
+        for (String line : StringUtils.split(StringUtils.defaultString(output), '\n')) {
+            String[] parts = StringUtils.split(line.trim());
+            if (parts.length == 2 && parts[0].length() == 32) {
+                result.put(parts[1], parts[0].toLowerCase());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 需要安装的文件
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Binary {
+        /** classpath路径 */
+        private String resource;
+        /** 设备上的路径 */
+        private String remote;
+        /** 文件权限 */
+        private String mode;
+    }
+
+    /**
+     * 解压后的本地文件
+     */
+    @Data
+    @AllArgsConstructor
+    public static class LocalFile {
+        private File file;
+        private String md5;
+    }
+}
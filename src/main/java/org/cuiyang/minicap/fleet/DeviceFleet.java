@@ -0,0 +1,189 @@
+package org.cuiyang.minicap.fleet;
+
+import com.android.ddmlib.IDevice;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.MinicapEventLoopGroup;
+import org.cuiyang.minicap.ScreenListener;
+import org.cuiyang.minicap.ScreenProjection;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+import org.cuiyang.minicap.metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 设备集群，管理多台设备的屏幕映射
+ * <p>
+ * 自动为每台设备分配本地端口；Minicap客户端共享事件循环非阻塞读取，帧在事件循环中直接投递给订阅者，
+ * 不占用映射循环的线程。Minicap服务、接入时的启动任务和帧的投递运行在共享的有界线程池中，空闲线程自动回收，
+ * 设备数量超过上限时拒绝接入。无缝重新配置期间一台设备同时运行新旧两个
+ * Minicap服务，运行Minicap服务的线程池按设备数量上限的两倍分配。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class DeviceFleet implements Closeable {
+
+    /** 默认设备数量上限 */
+    public static final int DEFAULT_MAX_DEVICES = 256;
+
+    /** 设备数量上限 */
+    private final int maxDevices;
+    /** 端口分配 */
+    private final PortAllocator portAllocator;
+    /** 运行Minicap服务(shell)的线程池 */
+    private final ExecutorService shellExecutor;
+    /** Minicap客户端的事件循环 */
+    private final MinicapEventLoopGroup eventLoopGroup;
+    /** 运行接入时的启动任务(推送minicap、启动服务和客户端)的线程池 */
+    private final ExecutorService projectionExecutor;
+    /** 所有设备共享的投递线程池 */
+    private final ExecutorService dispatchExecutor;
+    /** 设备序列号 -> 屏幕映射 */
+    private final ConcurrentMap<String, ScreenProjection> projections = new ConcurrentHashMap<>();
+
+    public DeviceFleet() {
+        this(DEFAULT_MAX_DEVICES, new PortAllocator());
+    }
+
+    public DeviceFleet(int maxDevices, PortAllocator portAllocator) {
+        this(maxDevices, portAllocator, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DeviceFleet(int maxDevices, PortAllocator portAllocator, int eventLoops) {
+        this.maxDevices = maxDevices;
+        this.portAllocator = portAllocator;
+        this.eventLoopGroup = new MinicapEventLoopGroup(eventLoops);
+        this.shellExecutor = newExecutor("minicap-shell-%d", 2 * maxDevices);
+        this.projectionExecutor = newExecutor("minicap-projection-%d", maxDevices);
+        this.dispatchExecutor = FrameHub.newExecutor("minicap-dispatch-%d", maxDevices);
+    }
+
+    /**
+     * 接入设备并开始屏幕映射
+     * @param device 设备
+     * @param listener 屏幕监听，每帧拷贝一次
+     * @return 屏幕映射
+     */
+    public ScreenProjection attach(IDevice device, ScreenListener listener) {
+        return attachWith(device, projection -> projection.setScreenListener(listener));
+    }
+
+    /**
+     * 接入设备并开始屏幕映射
+     * @param device 设备
+     * @param listener 帧监听
+     * @return 屏幕映射
+     */
+    public ScreenProjection attachFrames(IDevice device, FrameListener listener) {
+        return attachWith(device, projection -> projection.setFrameListener(listener));
+    }
+
+    /**
+     * 接入设备并开始屏幕映射
+     * @param device 设备
+     * @param configurer 启动前配置屏幕映射，如缩放、质量、监听
+     * @return 屏幕映射
+     */
+    public synchronized ScreenProjection attachWith(IDevice device, Consumer<ScreenProjection> configurer) {
+        String serial = device.getSerialNumber();
+        if (projections.containsKey(serial)) {
+            throw new IllegalStateException("设备已接入: " + serial);
+        }
+        if (projections.size() >= maxDevices) {
+            throw new IllegalStateException("设备数量已达上限: " + maxDevices);
+        }
+        int port = portAllocator.allocate();
+        FrameMetrics metrics = MetricsRegistry.register(serial);
+        try {
+            ScreenProjection projection = new ScreenProjection(device);
+            projection.setPort(port);
+            projection.setExecutors(shellExecutor, null);
+            projection.setEventLoopGroup(eventLoopGroup);
+            projection.setDispatchExecutor(dispatchExecutor);
+            projection.setMetrics(metrics);
+            configurer.accept(projection);
+            projections.put(serial, projection);
+            projection.start(projectionExecutor);
+            log.info("设备接入 serial: {}, port: {}", serial, port);
+            return projection;
+        } catch (RuntimeException e) {
+            projections.remove(serial);
+            portAllocator.release(port);
+            MetricsRegistry.unregister(serial, metrics);
+            throw e;
+        }
+    }
+
+    /**
+     * 断开设备
+     * @param serial 设备序列号
+     */
+    public synchronized void detach(String serial) {
+        ScreenProjection projection = projections.remove(serial);
+        if (projection != null) {
+            projection.close();
+            portAllocator.release(projection.getPort());
+            MetricsRegistry.unregister(serial, projection.getMetrics());
+            log.info("设备断开 serial: {}, port: {}", serial, projection.getPort());
+        }
+    }
+
+    /**
+     * 获取设备的屏幕映射
+     * @param serial 设备序列号
+     * @return 屏幕映射，未接入时返回null
+     */
+    public ScreenProjection get(String serial) {
+        return projections.get(serial);
+    }
+
+    /**
+     * 已接入的设备的屏幕映射
+     * @return 屏幕映射
+     */
+    public Collection<ScreenProjection> getProjections() {
+        return Collections.unmodifiableCollection(projections.values());
+    }
+
+    /**
+     * 已接入的设备数量
+     * @return 数量
+     */
+    public int size() {
+        return projections.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (String serial : new ArrayList<>(projections.keySet())) {
+            detach(serial);
+        }
+        shellExecutor.shutdown();
+        projectionExecutor.shutdown();
+        dispatchExecutor.shutdown();
+        eventLoopGroup.close();
+    }
+
+    /**
+     * 创建有界线程池，空闲60秒后回收
+     * @param nameFormat 线程名称
+     * @param maxThreads 最大线程数
+     */
+    private static ExecutorService newExecutor(String nameFormat, int maxThreads) {
+        return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+    }
+}
@@ -0,0 +1,94 @@
+package org.cuiyang.minicap.fleet;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.BitSet;
+
+/**
+ * 本地端口分配，跳过已分配和已被占用的端口
+ *
+ * @author cuiyang
+ */
+public class PortAllocator {
+
+    /** 默认起始端口 */
+    public static final int DEFAULT_FROM = 1717;
+    /** 默认端口数量 */
+    public static final int DEFAULT_COUNT = 1000;
+
+    /** 起始端口 */
+    private final int from;
+    /** 端口数量 */
+    private final int count;
+    /** 已分配的端口 */
+    private final BitSet allocated;
+    /** 下次分配开始的位置 */
+    private int cursor = 0;
+
+    public PortAllocator() {
+        this(DEFAULT_FROM, DEFAULT_COUNT);
+    }
+
+    public PortAllocator(int from, int count) {
+        if (from <= 0 || count <= 0 || from + count > 65536) {
+            throw new IllegalArgumentException("端口范围错误");
+        }
+        this.from = from;
+        this.count = count;
+        this.allocated = new BitSet(count);
+    }
+
+    /**
+     * 分配端口
+     * @return 端口
+     * @throws IllegalStateException 没有可用的端口
+     */
+    public synchronized int allocate() {
+        for (int i = 0; i < count; i++) {
+            int index = (cursor + i) % count;
+            if (allocated.get(index)) {
+                continue;
+            }
+            int port = from + index;
+            if (isAvailable(port)) {
+                allocated.set(index);
+                cursor = (index + 1) % count;
+                return port;
+            }
+        }
+        throw new IllegalStateException(String.format("没有可用的端口 %s-%s", from, from + count - 1));
+    }
+
+    /**
+     * 释放端口
+     * @param port 端口
+     */
+    public synchronized void release(int port) {
+        if (port >= from && port < from + count) {
+            allocated.clear(port - from);
+        }
+    }
+
+    /**
+     * 已分配的端口数量
+     * @return 数量
+     */
+    public synchronized int getAllocated() {
+        return allocated.cardinality();
+    }
+
+    /**
+     * 端口是否可用
+     * @param port 端口
+     * @return true 可用
+     */
+    protected boolean isAvailable(int port) {
+        try {
+            new ServerSocket(port, 1, InetAddress.getLoopbackAddress()).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
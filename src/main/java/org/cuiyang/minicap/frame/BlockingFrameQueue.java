@@ -0,0 +1,59 @@
+package org.cuiyang.minicap.frame;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界阻塞队列，满时阻塞生产者，背压传递到socket
+ *
+ * @author cuiyang
+ */
+public class BlockingFrameQueue implements FrameQueue {
+
+    private final BlockingQueue<Frame> queue;
+
+    public BlockingFrameQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void offer(Frame frame) throws InterruptedException {
+        try {
+            queue.put(frame);
+        } catch (InterruptedException e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryOffer(Frame frame) {
+        return queue.offer(frame);
+    }
+
+    @Override
+    public Frame take() throws InterruptedException {
+        return queue.take();
+    }
+
+    @Override
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    @Override
+    public Frame poll() {
+        return queue.poll();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public long getDropped() {
+        return 0;
+    }
+}
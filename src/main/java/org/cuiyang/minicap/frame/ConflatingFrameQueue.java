@@ -0,0 +1,104 @@
+package org.cuiyang.minicap.frame;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 只保留最新一帧的队列，新帧直接替换未被取走的旧帧，无锁
+ *
+ * @author cuiyang
+ */
+public class ConflatingFrameQueue implements FrameQueue {
+
+    /** 最新的一帧 */
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    /** 等待的线程 */
+    private final Queue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    /** 丢弃数量 */
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Override
+    public void offer(Frame frame) {
+        Frame previous = slot.getAndSet(frame);
+        if (previous != null) {
+            previous.release();
+            dropped.incrementAndGet();
+        }
+        if (!waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryOffer(Frame frame) {
+        offer(frame);
+        return true;
+    }
+
+    @Override
+    public Frame take() throws InterruptedException {
+        Frame frame;
+        while ((frame = slot.getAndSet(null)) == null) {
+            await(0);
+        }
+        return frame;
+    }
+
+    @Override
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Frame frame;
+        while ((frame = slot.getAndSet(null)) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            await(remaining);
+        }
+        return frame;
+    }
+
+    @Override
+    public Frame poll() {
+        return slot.getAndSet(null);
+    }
+
+    @Override
+    public int size() {
+        return slot.get() == null ? 0 : 1;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 等待新帧
+     * @param nanos 等待时间，0表示一直等待
+     */
+    private void await(long nanos) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            if (slot.get() == null) {
+                if (nanos > 0) {
+                    LockSupport.parkNanos(this, nanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            waiters.remove(current);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.cuiyang.minicap.frame;
+
+/**
+ * 帧投递策略
+ *
+ * @author cuiyang
+ */
+public enum DeliveryPolicy {
+
+    /** 只保留最新的一帧，无排队延迟 */
+    CONFLATE {
+        @Override
+        public FrameQueue newQueue(int capacity) {
+            return new ConflatingFrameQueue();
+        }
+    },
+    /** 有界队列，满时丢弃最旧的帧 */
+    DROP_OLDEST {
+        @Override
+        public FrameQueue newQueue(int capacity) {
+            return new DropOldestFrameQueue(capacity);
+        }
+    },
+    /** 有界队列，满时阻塞生产者 */
+    BLOCK {
+        @Override
+        public FrameQueue newQueue(int capacity) {
+            return new BlockingFrameQueue(capacity);
+        }
+    };
+
+    /**
+     * 创建队列
+     * @param capacity 队列容量，CONFLATE忽略该参数
+     * @return FrameQueue
+     */
+    public abstract FrameQueue newQueue(int capacity);
+}
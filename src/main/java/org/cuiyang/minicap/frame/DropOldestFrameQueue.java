@@ -0,0 +1,127 @@
+package org.cuiyang.minicap.frame;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界环形队列，满时丢弃最旧的帧，入队与丢弃在同一把锁内完成
+ *
+ * @author cuiyang
+ */
+public class DropOldestFrameQueue implements FrameQueue {
+
+    private final Frame[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    /** 队头 */
+    private int head = 0;
+    /** 数量 */
+    private int count = 0;
+    /** 丢弃数量 */
+    private long dropped = 0;
+
+    public DropOldestFrameQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0");
+        }
+        this.ring = new Frame[capacity];
+    }
+
+    @Override
+    public void offer(Frame frame) {
+        Frame oldest = null;
+        lock.lock();
+        try {
+            if (count == ring.length) {
+                oldest = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count --;
+                dropped ++;
+            }
+            ring[(head + count) % ring.length] = frame;
+            count ++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (oldest != null) {
+            oldest.release();
+        }
+    }
+
+    @Override
+    public boolean tryOffer(Frame frame) {
+        offer(frame);
+        return true;
+    }
+
+    @Override
+    public Frame take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Frame poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Frame poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame dequeue() {
+        Frame frame = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        count --;
+        return frame;
+    }
+}
@@ -0,0 +1,242 @@
+package org.cuiyang.minicap.frame;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 一帧画面(JPEG)
+ * <p>
+ * 带引用计数，创建时引用计数为1。需要跨线程或在回调返回后继续持有时调用{@link #retain()}，
+ * 使用完成后调用{@link #release()}，引用计数归零时缓冲区归还到所属的{@link FramePool}。
+ * <p>
+ * 图像在第一次访问时解码并缓存，同一帧的多个消费者共享解码结果。
+ *
+ * @author cuiyang
+ */
+public final class Frame {
+
+    private static final AtomicIntegerFieldUpdater<Frame> REF_CNT =
+            AtomicIntegerFieldUpdater.newUpdater(Frame.class, "refCnt");
+
+    /** 所属的缓冲池，为null时不回收 */
+    private final FramePool pool;
+    /** 底层缓冲区，容量可能大于帧长度 */
+    private final ByteBuffer buffer;
+    /** 帧长度 */
+    private final int length;
+    /** 引用计数 */
+    private volatile int refCnt = 1;
+    /** 解码参数 -> 图像 */
+    private volatile ConcurrentMap<JpegDecoder.Key, BufferedImage> images;
+
+    /** 序号 */
+    private long sequence;
+    /** 接收时间(毫秒) */
+    private long timestamp;
+    /** 接收时间(System.nanoTime) */
+    private long nanoTime;
+
+    Frame(FramePool pool, ByteBuffer buffer, int length) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    /**
+     * 包装字节数组，不拷贝、不回收
+     * @param data 帧数据
+     * @return Frame
+     */
+    public static Frame wrap(byte[] data) {
+        return new Frame(null, ByteBuffer.wrap(data), data.length);
+    }
+
+    /**
+     * 包装缓冲区中position到limit之间的数据，不拷贝、不回收
+     * @param data 帧数据
+     * @return Frame
+     */
+    public static Frame wrap(ByteBuffer data) {
+        return new Frame(null, data.slice(), data.remaining());
+    }
+
+    /**
+     * 帧长度
+     * @return 字节数
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 只读视图，position为0，limit为帧长度。每次调用返回独立的视图，可在多个线程中同时读取
+     * @return 只读缓冲区
+     */
+    public ByteBuffer buffer() {
+        ensureAccessible();
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.clear().limit(length);
+        return view;
+    }
+
+    /**
+     * 可写视图，仅供生产者填充数据，发布之后不应再写入
+     * @return 可写缓冲区
+     */
+    public ByteBuffer content() {
+        ensureAccessible();
+        ByteBuffer view = buffer.duplicate();
+        view.clear().limit(length);
+        return view;
+    }
+
+    /**
+     * 拷贝为字节数组
+     * @return 帧数据
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length];
+        buffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 原始分辨率的图像
+     * @return 图像，多个消费者共享，不应修改
+     * @throws IOException 解码失败
+     */
+    public BufferedImage image() throws IOException {
+        return image(null, 1);
+    }
+
+    /**
+     * 降采样的图像，宽高为原始的1/subsampling，解码时跳过其余像素
+     * @param subsampling 降采样倍数，1为原始分辨率
+     * @return 图像，多个消费者共享，不应修改
+     * @throws IOException 解码失败
+     */
+    public BufferedImage image(int subsampling) throws IOException {
+        return image(null, subsampling);
+    }
+
+    /**
+     * 区域图像，只解码区域内的像素
+     * @param region 原始分辨率下的区域，为null时为整幅图像
+     * @param subsampling 降采样倍数，1为原始分辨率
+     * @return 图像，多个消费者共享，不应修改
+     * @throws IOException 解码失败
+     */
+    public BufferedImage image(Rectangle region, int subsampling) throws IOException {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("降采样倍数必须大于0");
+        }
+        ensureAccessible();
+        ConcurrentMap<JpegDecoder.Key, BufferedImage> images = this.images;
+        if (images == null) {
+            synchronized (this) {
+                images = this.images;
+                if (images == null) {
+                    images = new ConcurrentHashMap<>(4);
+                    this.images = images;
+                }
+            }
+        }
+        JpegDecoder.Key key = new JpegDecoder.Key(region == null ? null : new Rectangle(region), subsampling);
+        try {
+            // 相同参数的并发调用等待同一次解码
+            return images.computeIfAbsent(key, k -> {
+                try {
+                    return JpegDecoder.decode(buffer(), k);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 增加引用计数
+     * @return this
+     */
+    public Frame retain() {
+        for (;;) {
+            int cnt = refCnt;
+            if (cnt <= 0) {
+                throw new IllegalStateException("帧已释放");
+            }
+            if (REF_CNT.compareAndSet(this, cnt, cnt + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 减少引用计数，归零时归还缓冲区并丢弃缓存的图像
+     * @return true 已归还
+     */
+    public boolean release() {
+        int cnt = REF_CNT.decrementAndGet(this);
+        if (cnt == 0) {
+            images = null;
+            if (pool != null) {
+                pool.recycle(buffer);
+            }
+            return true;
+        }
+        if (cnt < 0) {
+            throw new IllegalStateException("帧重复释放");
+        }
+        return false;
+    }
+
+    /**
+     * 当前引用计数
+     * @return 引用计数
+     */
+    public int refCnt() {
+        return refCnt;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    public void setNanoTime(long nanoTime) {
+        this.nanoTime = nanoTime;
+    }
+
+    private void ensureAccessible() {
+        if (refCnt <= 0) {
+            throw new IllegalStateException("帧已释放");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Frame(sequence=" + sequence + ", length=" + length + ", refCnt=" + refCnt + ")";
+    }
+}
@@ -0,0 +1,107 @@
+package org.cuiyang.minicap.frame;
+
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重复帧过滤
+ * <p>
+ * 对JPEG内容计算{@link FrameHash}，与上一次投递的帧相同时不再投递。画面不变期间按心跳间隔调用
+ * {@link FrameListener#onUnchanged(long)}，下游据此确认画面仍在输出。相同画面的JPEG编码结果相同，
+ * 只过滤字节完全一致的帧。只能在一个线程中调用。
+ *
+ * @author cuiyang
+ */
+public class FrameDeduplicator implements FrameListener {
+
+    private final FrameListener downstream;
+    /** 心跳间隔(纳秒) */
+    private long heartbeatNanos = TimeUnit.SECONDS.toNanos(1);
+    /** 指标，为null时不记录 */
+    private FrameMetrics metrics;
+
+    /** 上一次投递的帧的哈希和长度 */
+    private long lastHash;
+    private int lastLength = -1;
+    /** 上一次投递或心跳的时间 */
+    private long lastEventTime;
+    /** 自上一次投递以来过滤的帧数 */
+    private long suppressedSinceDelivery;
+
+    /** 累计过滤的帧数 */
+    private volatile long suppressed;
+    /** 累计投递的帧数 */
+    private volatile long forwarded;
+
+    public FrameDeduplicator(FrameListener downstream) {
+        this.downstream = downstream;
+    }
+
+    /**
+     * 设置心跳间隔，默认为1秒
+     * @param interval 间隔
+     * @param unit 时间单位
+     */
+    public void setHeartbeatInterval(long interval, TimeUnit unit) {
+        this.heartbeatNanos = unit.toNanos(interval);
+    }
+
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        long hash = FrameHash.hash(frame);
+        long now = System.nanoTime();
+        if (frame.length() == lastLength && hash == lastHash) {
+            suppressed++;
+            suppressedSinceDelivery++;
+            if (metrics != null) {
+                metrics.frameSuppressed();
+            }
+            if (now - lastEventTime >= heartbeatNanos) {
+                lastEventTime = now;
+                downstream.onUnchanged(suppressedSinceDelivery);
+            }
+            return;
+        }
+        lastHash = hash;
+        lastLength = frame.length();
+        lastEventTime = now;
+        suppressedSinceDelivery = 0;
+        forwarded++;
+        downstream.onFrame(frame);
+    }
+
+    @Override
+    public void onUnchanged(long suppressed) {
+        downstream.onUnchanged(suppressed);
+    }
+
+    /**
+     * 重置，下一帧总是投递
+     */
+    public void reset() {
+        lastLength = -1;
+        suppressedSinceDelivery = 0;
+    }
+
+    /**
+     * 累计过滤的帧数
+     * @return 帧数
+     */
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    /**
+     * 累计投递的帧数
+     * @return 帧数
+     */
+    public long getForwarded() {
+        return forwarded;
+    }
+}
@@ -0,0 +1,180 @@
+package org.cuiyang.minicap.frame;
+
+import lombok.Data;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧缓冲池
+ * <p>
+ * 按2的幂划分容量等级，每个等级缓存有限数量的缓冲区。超过最大等级的帧直接分配，不回收。
+ *
+ * @author cuiyang
+ */
+public class FramePool {
+
+    /** 默认最小等级 64KB */
+    public static final int DEFAULT_MIN_SIZE = 64 * 1024;
+    /** 默认最大等级 8MB */
+    public static final int DEFAULT_MAX_SIZE = 8 * 1024 * 1024;
+    /** 默认每个等级缓存的缓冲区数量 */
+    public static final int DEFAULT_MAX_PER_CLASS = 64;
+
+    /** 默认的堆内缓冲池 */
+    private static final FramePool DEFAULT = new FramePool(false);
+
+    /** 是否使用堆外内存 */
+    private final boolean direct;
+    /** 最小等级的位数 */
+    private final int minShift;
+    /** 最大等级 */
+    private final int maxSize;
+    /** 每个等级缓存的缓冲区数量 */
+    private final int maxPerClass;
+    /** 各等级缓存的缓冲区 */
+    private final Queue<ByteBuffer>[] classes;
+    /** 各等级缓存的缓冲区数量 */
+    private final AtomicInteger[] classSizes;
+
+    /** 命中次数 */
+    private final AtomicLong hits = new AtomicLong();
+    /** 未命中次数 */
+    private final AtomicLong misses = new AtomicLong();
+    /** 未归还的缓冲区数量 */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    public FramePool(boolean direct) {
+        this(direct, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_MAX_PER_CLASS);
+    }
+
+    public FramePool(boolean direct, int minSize, int maxSize, int maxPerClass) {
+        if (minSize <= 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("缓冲池容量等级错误");
+        }
+        this.direct = direct;
+        this.minShift = 32 - Integer.numberOfLeadingZeros(minSize - 1);
+        int maxShift = 32 - Integer.numberOfLeadingZeros(maxSize - 1);
+        this.maxSize = 1 << maxShift;
+        this.maxPerClass = maxPerClass;
+        int count = maxShift - minShift + 1;
+        @SuppressWarnings("unchecked")
+        Queue<ByteBuffer>[] classes = (Queue<ByteBuffer>[]) new Queue<?>[count];
+        this.classes = classes;
+        this.classSizes = new AtomicInteger[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+            classSizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * 默认的堆内缓冲池
+     * @return FramePool
+     */
+    public static FramePool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 分配一帧，引用计数为1
+     * @param length 帧长度
+     * @return Frame
+     */
+    public Frame allocate(int length) {
+        outstanding.incrementAndGet();
+        if (length > maxSize) {
+            misses.incrementAndGet();
+            return new Frame(this, allocateBuffer(length), length);
+        }
+        int index = sizeClass(length);
+        ByteBuffer buffer = classes[index].poll();
+        if (buffer != null) {
+            classSizes[index].decrementAndGet();
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = allocateBuffer(1 << (index + minShift));
+        }
+        return new Frame(this, buffer, length);
+    }
+
+    /**
+     * 归还缓冲区
+     */
+    void recycle(ByteBuffer buffer) {
+        outstanding.decrementAndGet();
+        int capacity = buffer.capacity();
+        if (capacity > maxSize || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int index = sizeClass(capacity);
+        if (classSizes[index].incrementAndGet() > maxPerClass) {
+            classSizes[index].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        classes[index].offer(buffer);
+    }
+
+    /**
+     * 统计信息
+     * @return Stats
+     */
+    public Stats getStats() {
+        Stats stats = new Stats();
+        stats.setHits(hits.get());
+        stats.setMisses(misses.get());
+        stats.setOutstanding(outstanding.get());
+        int pooled = 0;
+        for (AtomicInteger size : classSizes) {
+            pooled += size.get();
+        }
+        stats.setPooled(pooled);
+        return stats;
+    }
+
+    /**
+     * 是否使用堆外内存
+     * @return true 堆外内存
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    private int sizeClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift - minShift, 0);
+    }
+
+    private ByteBuffer allocateBuffer(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * 缓冲池统计
+     */
+    @Data
+    public static class Stats {
+        /** 命中次数 */
+        private long hits;
+        /** 未命中次数 */
+        private long misses;
+        /** 未归还的缓冲区数量，持续增长说明有帧未释放 */
+        private int outstanding;
+        /** 池中缓存的缓冲区数量 */
+        private int pooled;
+
+        /**
+         * 命中率
+         * @return 0~1
+         */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.cuiyang.minicap.frame;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧队列
+ * <p>
+ * 入队即转移帧的所有权，被丢弃的帧由队列负责释放；出队的帧由调用方负责释放。
+ *
+ * @author cuiyang
+ */
+public interface FrameQueue {
+
+    /**
+     * 入队
+     * @param frame 帧
+     * @throws InterruptedException 阻塞中断，此时帧已释放
+     */
+    void offer(Frame frame) throws InterruptedException;
+
+    /**
+     * 入队，不阻塞。只有{@link BlockingFrameQueue}会因队列已满而失败
+     * @param frame 帧
+     * @return true 已入队 false 队列已满，帧仍由调用方持有
+     */
+    boolean tryOffer(Frame frame);
+
+    /**
+     * 出队，如果没有则阻塞
+     * @return 帧
+     * @throws InterruptedException 阻塞中断
+     */
+    Frame take() throws InterruptedException;
+
+    /**
+     * 出队，如果没有则等待指定时间
+     * @param timeout 超时时间
+     * @param unit 时间单位
+     * @return 帧，超时返回null
+     * @throws InterruptedException 阻塞中断
+     */
+    Frame poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 出队，不阻塞
+     * @return 帧，没有则返回null
+     */
+    Frame poll();
+
+    /**
+     * 队列中帧的数量
+     * @return 数量
+     */
+    int size();
+
+    /**
+     * 已丢弃的帧的数量
+     * @return 数量
+     */
+    long getDropped();
+
+    /**
+     * 清空队列并释放帧
+     */
+    default void clear() {
+        Frame frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.cuiyang.minicap.frame;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * JPEG解码
+ * <p>
+ * 通过{@link ImageReadParam}在解码阶段完成降采样和区域裁剪，不解码的像素不产生开销。
+ * 每个线程复用一个{@link ImageReader}，输入不经过磁盘缓存。
+ *
+ * @author cuiyang
+ */
+final class JpegDecoder {
+
+    private static final ThreadLocal<ImageReader> READER = ThreadLocal.withInitial(() -> {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg");
+        if (!readers.hasNext()) {
+            throw new IllegalStateException("没有可用的JPEG解码器");
+        }
+        return readers.next();
+    });
+
+    private JpegDecoder() {
+    }
+
+    /**
+     * 解码
+     * @param data JPEG数据，position到limit之间
+     * @param key 解码参数
+     * @return 图像
+     * @throws IOException 解码失败
+     */
+    static BufferedImage decode(ByteBuffer data, Key key) throws IOException {
+        ImageReader reader = READER.get();
+        try (ImageInputStream in = new MemoryCacheImageInputStream(new ByteBufferInputStream(data))) {
+            reader.setInput(in, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (key.getRegion() != null) {
+                param.setSourceRegion(key.getRegion());
+            }
+            if (key.getSubsampling() > 1) {
+                param.setSourceSubsampling(key.getSubsampling(), key.getSubsampling(), 0, 0);
+            }
+            return reader.read(0, param);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * 解码参数，同时作为缓存的键
+     */
+    @Data
+    @AllArgsConstructor
+    static class Key {
+        /** 源图像中的区域，为null时为整幅图像 */
+        private Rectangle region;
+        /** 降采样倍数，1为原始分辨率 */
+        private int subsampling;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package org.cuiyang.minicap.http;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧推流服务，基于NIO，不依赖其他库
+ * <p>
+ * <ul>
+ *     <li>GET /stream.mjpeg: multipart/x-mixed-replace 格式的MJPEG流，浏览器可直接通过img标签查看</li>
+ *     <li>GET /ws: WebSocket，每帧为一个二进制消息</li>
+ * </ul>
+ * 每帧的分段头和帧缓冲区通过gathering write一次写出，不拷贝帧数据。观看者上一帧未写完时跳过新帧，
+ * 不为慢速的观看者缓存帧。作为{@link FrameListener}订阅屏幕映射即可推流。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FrameStreamServer extends Thread implements FrameListener, Closeable {
+
+    /** MJPEG分段边界 */
+    private static final String BOUNDARY = "minicap";
+    /** WebSocket GUID */
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    /** 请求头最大长度 */
+    private static final int MAX_REQUEST_SIZE = 8192;
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    /** 待推送的帧 */
+    private final Queue<Frame> frames = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = false;
+
+    /** 观看者数量 */
+    private final AtomicInteger viewers = new AtomicInteger();
+    /** 已推送的帧数 */
+    private final AtomicLong sentFrames = new AtomicLong();
+    /** 因观看者处理不及时而跳过的帧数 */
+    private final AtomicLong skippedFrames = new AtomicLong();
+
+    public FrameStreamServer(int port) {
+        this(new InetSocketAddress(port));
+    }
+
+    public FrameStreamServer(InetSocketAddress address) {
+        super("frame-stream-server");
+        this.address = address;
+        setDaemon(true);
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(serverChannel);
+            IOUtils.closeQuietly(selector);
+            throw new IllegalStateException("推流服务启动失败", e);
+        }
+        running = true;
+        super.start();
+        log.info("推流服务已启动 port: {}", getPort());
+    }
+
+    /**
+     * 获取监听的端口
+     * @return 端口
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getViewers() {
+        return viewers.get();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        if (!running || viewers.get() == 0) {
+            return;
+        }
+        frames.add(frame.retain());
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Frame frame;
+                Frame latest = null;
+                while ((frame = frames.poll()) != null) {
+                    if (latest != null) {
+                        latest.release();
+                    }
+                    latest = frame;
+                }
+                if (latest != null) {
+                    try {
+                        broadcast(latest);
+                    } finally {
+                        latest.release();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (Exception e) {
+                if (running) {
+                    log.error("推流服务运行错误", e);
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Viewer) {
+                close(key);
+            }
+        }
+        IOUtils.closeQuietly(serverChannel);
+        IOUtils.closeQuietly(selector);
+        Frame frame;
+        while ((frame = frames.poll()) != null) {
+            frame.release();
+        }
+        log.info("推流服务已关闭");
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    channel.register(selector, SelectionKey.OP_READ, new Viewer());
+                }
+                return;
+            }
+            Viewer viewer = (Viewer) key.attachment();
+            if (key.isReadable()) {
+                read(key, viewer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                write(key, viewer);
+            }
+        } catch (IOException e) {
+            log.debug("观看者连接断开: {}", e.getMessage());
+            close(key);
+        }
+    }
+
+    /**
+     * 读取请求，或WebSocket的客户端消息
+     */
+    private void read(SelectionKey key, Viewer viewer) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        int len = channel.read(viewer.in);
+        if (len < 0) {
+            close(key);
+            return;
+        }
+        if (viewer.type == Viewer.Type.WEBSOCKET) {
+            readWebSocket(key, viewer);
+            return;
+        }
+        if (viewer.type != null) {
+            // MJPEG客户端不会再发送数据
+            viewer.in.clear();
+            return;
+        }
+        String request = new String(viewer.in.array(), 0, viewer.in.position(), StandardCharsets.ISO_8859_1);
+        int end = request.indexOf("\r\n\r\n");
+        if (end < 0) {
+            if (!viewer.in.hasRemaining()) {
+                respond(key, viewer, "431 Request Header Fields Too Large");
+            }
+            return;
+        }
+        viewer.in.clear();
+        String[] lines = request.substring(0, end).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        String path = requestLine.length > 1 ? requestLine[1] : "";
+        String webSocketKey = null;
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && "sec-websocket-key".equals(line.substring(0, colon).trim().toLowerCase(Locale.ROOT))) {
+                webSocketKey = line.substring(colon + 1).trim();
+            }
+        }
+        if (!"GET".equals(requestLine[0])) {
+            respond(key, viewer, "405 Method Not Allowed");
+        } else if (path.startsWith("/ws") && webSocketKey != null) {
+            viewer.type = Viewer.Type.WEBSOCKET;
+            viewer.pending = new ByteBuffer[]{ascii("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + accept(webSocketKey) + "\r\n\r\n")};
+            viewers.incrementAndGet();
+            write(key, viewer);
+        } else if ("/".equals(path) || path.startsWith("/stream.mjpeg")) {
+            viewer.type = Viewer.Type.MJPEG;
+            viewer.pending = new ByteBuffer[]{ascii("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+                    + "Cache-Control: no-cache, no-store\r\nPragma: no-cache\r\nConnection: close\r\n\r\n")};
+            viewers.incrementAndGet();
+            write(key, viewer);
+        } else {
+            respond(key, viewer, "404 Not Found");
+        }
+    }
+
+    /**
+     * 处理WebSocket客户端消息，只处理关闭。未掩码或长度非法的消息关闭连接
+     */
+    private void readWebSocket(SelectionKey key, Viewer viewer) {
+        ByteBuffer in = viewer.in;
+        in.flip();
+        while (in.remaining() >= 2) {
+            int opcode = in.get(in.position()) & 0x0f;
+            if ((in.get(in.position() + 1) & 0x80) == 0) {
+                // 客户端消息必须掩码
+                close(key);
+                return;
+            }
+            int length = in.get(in.position() + 1) & 0x7f;
+            int header = 2 + 4;
+            if (length == 126) {
+                header += 2;
+            } else if (length == 127) {
+                header += 8;
+            }
+            if (in.remaining() < header) {
+                break;
+            }
+            long payload = length;
+            if (length == 126) {
+                payload = in.getShort(in.position() + 2) & 0xffff;
+            } else if (length == 127) {
+                payload = in.getLong(in.position() + 2);
+                if (payload < 0) {
+                    close(key);
+                    return;
+                }
+            }
+            if (opcode == 0x8) {
+                close(key);
+                return;
+            }
+            if (payload > in.remaining() - header) {
+                if (header + payload > in.capacity()) {
+                    // 不接收大消息
+                    close(key);
+                    return;
+                }
+                break;
+            }
+            in.position(in.position() + header + (int) payload);
+        }
+        in.compact();
+    }
+
+    /**
+     * 向所有空闲的观看者推送一帧
+     */
+    private void broadcast(Frame frame) {
+        ByteBuffer mjpegHeader = null;
+        ByteBuffer webSocketHeader = null;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Viewer)) {
+                continue;
+            }
+            Viewer viewer = (Viewer) key.attachment();
+            if (viewer.type == null) {
+                continue;
+            }
+            if (viewer.pending != null) {
+                // 上一帧未写完，跳过
+                skippedFrames.incrementAndGet();
+                continue;
+            }
+            viewer.frame = frame.retain();
+            if (viewer.type == Viewer.Type.MJPEG) {
+                if (mjpegHeader == null) {
+                    mjpegHeader = ascii("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                            + frame.length() + "\r\n\r\n");
+                }
+                viewer.pending = new ByteBuffer[]{mjpegHeader.duplicate(), frame.buffer(), ByteBuffer.wrap(CRLF)};
+            } else {
+                if (webSocketHeader == null) {
+                    webSocketHeader = webSocketHeader(frame.length());
+                }
+                viewer.pending = new ByteBuffer[]{webSocketHeader.duplicate(), frame.buffer()};
+            }
+            try {
+                write(key, viewer);
+            } catch (IOException e) {
+                log.debug("观看者连接断开: {}", e.getMessage());
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * gathering write，未写完时等待可写
+     */
+    private void write(SelectionKey key, Viewer viewer) throws IOException {
+        if (viewer.pending == null) {
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+        SocketChannel channel = (SocketChannel) key.channel();
+        channel.write(viewer.pending);
+        for (ByteBuffer buffer : viewer.pending) {
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if (viewer.frame != null) {
+            viewer.frame.release();
+            viewer.frame = null;
+            sentFrames.incrementAndGet();
+        }
+        viewer.pending = null;
+        if (viewer.closeAfterWrite) {
+            close(key);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 返回错误响应后关闭连接
+     */
+    private void respond(SelectionKey key, Viewer viewer, String status) throws IOException {
+        viewer.pending = new ByteBuffer[]{ascii("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")};
+        viewer.closeAfterWrite = true;
+        write(key, viewer);
+    }
+
+    private void close(SelectionKey key) {
+        Viewer viewer = (Viewer) key.attachment();
+        key.cancel();
+        IOUtils.closeQuietly(key.channel());
+        if (viewer.frame != null) {
+            viewer.frame.release();
+            viewer.frame = null;
+        }
+        viewer.pending = null;
+        if (viewer.type != null) {
+            viewer.type = null;
+            viewers.decrementAndGet();
+        }
+    }
+
+    private static ByteBuffer webSocketHeader(int length) {
+        ByteBuffer header = ByteBuffer.allocate(10);
+        header.put((byte) 0x82);
+        if (length < 126) {
+            header.put((byte) length);
+        } else if (length <= 0xffff) {
+            header.put((byte) 126).putShort((short) length);
+        } else {
+            header.put((byte) 127).putLong(length);
+        }
+        header.flip();
+        return header;
+    }
+
+    private static String accept(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 观看者
+     */
+    private static class Viewer {
+        enum Type { MJPEG, WEBSOCKET }
+
+        /** 类型，为null时还未收到完整的请求 */
+        private Type type;
+        /** 读缓冲区 */
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        /** 待写出的数据 */
+        private ByteBuffer[] pending;
+        /** 正在写出的帧 */
+        private Frame frame;
+        /** 写完后关闭 */
+        private boolean closeAfterWrite;
+    }
+}
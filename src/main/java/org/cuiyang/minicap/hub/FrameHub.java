@@ -0,0 +1,218 @@
+package org.cuiyang.minicap.hub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧广播
+ * <p>
+ * 一帧通过引用计数在所有订阅者之间共享，不拷贝。订阅者通过{@link Frame#buffer()}只读访问。
+ * 每个订阅者有独立的投递策略：CONFLATE和DROP_OLDEST在订阅者处理不及时时丢帧，不影响其他订阅者和读取线程；
+ * BLOCK保证不丢帧，队列满时阻塞发布线程，只适合录制等必须完整接收的订阅者。
+ * 订阅者可以在运行期间随时订阅和取消。
+ * <p>
+ * 投递在线程池中进行，同一订阅者按顺序接收，监听的异常交给{@link ListenerErrorHandler}处理。
+ * JDK21及以上可通过{@link org.cuiyang.minicap.util.VirtualThreads}使用虚拟线程投递。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FrameHub implements FrameListener, Closeable {
+
+    /** 默认的投递线程数 */
+    private static final int DEFAULT_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /** 默认的投递线程池，所有映射共享 */
+    private static final Executor DEFAULT_EXECUTOR = newExecutor("frame-hub-%d", DEFAULT_THREADS);
+
+    /** 默认的队列容量 */
+    public static final int DEFAULT_CAPACITY = 8;
+
+    /** 默认的异常处理，记录日志 */
+    private static final ListenerErrorHandler DEFAULT_ERROR_HANDLER =
+            (listener, frame, error) -> log.error("帧监听运行错误 listener: {}, frame: {}", listener, frame, error);
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile Executor executor;
+    private volatile ListenerErrorHandler errorHandler = DEFAULT_ERROR_HANDLER;
+
+    public FrameHub() {
+        this(DEFAULT_EXECUTOR);
+    }
+
+    public FrameHub(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 创建有界的投递线程池，线程都在忙时排队，空闲60秒后回收
+     * <p>
+     * 每个订阅同一时刻最多占用一个线程，排队的任务数不超过订阅数。阻塞的监听会一直占用线程。
+     * @param nameFormat 线程名称
+     * @param maxThreads 最大线程数
+     * @return 线程池
+     */
+    public static ExecutorService newExecutor(String nameFormat, int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 设置投递线程池，对已有的订阅同样生效
+     * @param executor 线程池
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+        for (Subscription subscription : subscriptions) {
+            subscription.setExecutor(executor);
+        }
+    }
+
+    /**
+     * 设置监听异常处理，默认记录日志
+     * @param errorHandler 异常处理
+     */
+    public void setErrorHandler(ListenerErrorHandler errorHandler) {
+        this.errorHandler = errorHandler == null ? DEFAULT_ERROR_HANDLER : errorHandler;
+    }
+
+    /**
+     * 处理监听异常，异常处理本身抛出的异常记录日志
+     */
+    void handleError(FrameListener listener, Frame frame, Throwable error) {
+        try {
+            errorHandler.onError(listener, frame, error);
+        } catch (Throwable e) {
+            log.error("监听异常处理运行错误", e);
+        }
+    }
+
+    /**
+     * 订阅，只接收最新的帧
+     * @param listener 帧监听
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener) {
+        return subscribe(listener, DeliveryPolicy.CONFLATE);
+    }
+
+    /**
+     * 订阅
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy) {
+        return subscribe(listener, policy, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 订阅
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @param capacity 队列容量，CONFLATE忽略该参数
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy, int capacity) {
+        return subscribe(listener, policy, capacity, null);
+    }
+
+    /**
+     * 订阅，限制帧率
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @param rateLimit 帧率上限，为null时不限制
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy, RateLimit rateLimit) {
+        return subscribe(listener, policy, DEFAULT_CAPACITY, rateLimit);
+    }
+
+    /**
+     * 订阅，限制帧率
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @param capacity 队列容量，CONFLATE忽略该参数
+     * @param rateLimit 帧率上限，为null时不限制
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy, int capacity, RateLimit rateLimit) {
+        Subscription subscription = new Subscription(this, listener, policy, capacity, executor);
+        subscription.setRateLimit(rateLimit);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * 当前的订阅
+     * @return 订阅
+     */
+    public List<Subscription> getSubscriptions() {
+        return Collections.unmodifiableList(subscriptions);
+    }
+
+    /**
+     * 是否有订阅者
+     * @return true 有订阅者
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * 广播一帧，每个通过限流的订阅者持有一个引用。调用方仍持有原有的引用
+     * @param frame 帧
+     */
+    @Override
+    public void onFrame(Frame frame) {
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.publish(frame);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 广播画面未变化的心跳，订阅者处理不及时时合并
+     * @param suppressed 自上一次投递以来过滤的重复帧数
+     */
+    @Override
+    public void onUnchanged(long suppressed) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offerUnchanged(suppressed);
+        }
+    }
+
+    void remove(Subscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    /**
+     * 取消所有订阅
+     */
+    @Override
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+}
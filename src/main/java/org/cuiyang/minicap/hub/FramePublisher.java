@@ -0,0 +1,204 @@
+package org.cuiyang.minicap.hub;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 帧的Reactive Streams发布者
+ * <p>
+ * 每个订阅者在{@link FrameHub}上有一个订阅，按request(n)的需求投递。没有需求时只保留最新的一帧，
+ * 需求到来时立即投递，不为订阅者占用等待的线程。onNext收到的帧使用完后需调用{@link Frame#release()}。
+ * 帧广播关闭时调用onComplete。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FramePublisher implements Publisher<Frame> {
+
+    private final FrameHub hub;
+    /** 所有订阅者取消后关闭，为null时不关闭 */
+    private final Closeable source;
+    /** 当前的订阅者数量 */
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    public FramePublisher(FrameHub hub) {
+        this(hub, null);
+    }
+
+    /**
+     * @param hub 帧广播
+     * @param source 数据源，所有订阅者取消后关闭
+     */
+    public FramePublisher(FrameHub hub, Closeable source) {
+        this.hub = hub;
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Frame> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        FrameSubscription subscription = new FrameSubscription(subscriber);
+        subscribers.incrementAndGet();
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    /**
+     * 订阅者取消或结束
+     */
+    private void unsubscribed(boolean cancelled) {
+        if (subscribers.decrementAndGet() == 0 && cancelled && source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                log.warn("关闭数据源失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按需求投递的订阅
+     */
+    private final class FrameSubscription implements org.reactivestreams.Subscription, FrameListener {
+
+        private final Subscriber<? super Frame> subscriber;
+        /** 未满足的需求 */
+        private final AtomicLong requested = new AtomicLong();
+        /** 等待需求的最新一帧 */
+        private final AtomicReference<Frame> pending = new AtomicReference<>();
+        /** 待处理的投递请求数，大于0时有线程在投递 */
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile Subscription subscription;
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+        private volatile Throwable error;
+        /** 已通知订阅者结束 */
+        private boolean terminated = false;
+
+        FrameSubscription(Subscriber<? super Frame> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start() {
+            if (cancelled) {
+                return;
+            }
+            subscription = hub.subscribe(this, DeliveryPolicy.CONFLATE);
+            if (cancelled) {
+                subscription.close();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("§3.9 request必须大于0: " + n);
+                done = true;
+            } else {
+                for (;;) {
+                    long current = requested.get();
+                    long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                    if (requested.compareAndSet(current, next)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Subscription subscription = this.subscription;
+            if (subscription != null) {
+                subscription.close();
+            }
+            drain();
+        }
+
+        @Override
+        public void onFrame(Frame frame) {
+            Frame previous = pending.getAndSet(frame.retain());
+            if (previous != null) {
+                previous.release();
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            done = true;
+            drain();
+        }
+
+        /**
+         * 串行调用订阅者，同一时刻最多只有一个线程在投递
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                if (cancelled || terminated) {
+                    Frame frame = pending.getAndSet(null);
+                    if (frame != null) {
+                        frame.release();
+                    }
+                    if (cancelled && !terminated) {
+                        terminated = true;
+                        unsubscribed(true);
+                    }
+                } else if (error != null) {
+                    terminate();
+                    subscriber.onError(error);
+                } else {
+                    while (requested.get() > 0 && !cancelled) {
+                        Frame frame = pending.getAndSet(null);
+                        if (frame == null) {
+                            break;
+                        }
+                        requested.decrementAndGet();
+                        subscriber.onNext(frame);
+                    }
+                    if (done && !cancelled && error == null) {
+                        terminate();
+                        subscriber.onComplete();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            Subscription subscription = this.subscription;
+            if (subscription != null) {
+                subscription.close();
+            }
+            Frame frame = pending.getAndSet(null);
+            if (frame != null) {
+                frame.release();
+            }
+            unsubscribed(false);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.cuiyang.minicap.hub;
+
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.Frame;
+
+/**
+ * 帧监听异常处理
+ *
+ * @author cuiyang
+ */
+@FunctionalInterface
+public interface ListenerErrorHandler {
+
+    /**
+     * 监听抛出异常，在投递线程中调用，之后继续投递下一帧
+     * @param listener 帧监听
+     * @param frame 帧，心跳时为null，返回后帧即被释放
+     * @param error 异常
+     */
+    void onError(FrameListener listener, Frame frame, Throwable error);
+}
@@ -0,0 +1,96 @@
+package org.cuiyang.minicap.hub;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅的帧率上限
+ * <p>
+ * 按令牌桶限制投递的帧，超出的帧在进入收件队列之前丢弃，不增加引用、不解码。
+ * 开启{@link #latest()}时窗口内的帧不丢弃到底，而是在令牌可用时投递其中最新的一帧，
+ * 画面停止变化时最后一帧也会送达。不可变，可在多个订阅之间共享。
+ *
+ * @author cuiyang
+ */
+public final class RateLimit {
+
+    /** 每个令牌的间隔(纳秒) */
+    private final long intervalNanos;
+    /** 桶容量 */
+    private final int burst;
+    /** 是否投递窗口内最新的帧 */
+    private final boolean latest;
+
+    private RateLimit(long intervalNanos, int burst, boolean latest) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("间隔必须大于0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("桶容量必须大于0");
+        }
+        this.intervalNanos = intervalNanos;
+        this.burst = burst;
+        this.latest = latest;
+    }
+
+    /**
+     * 固定间隔，每个间隔内最多投递一帧
+     * @param interval 间隔
+     * @param unit 时间单位
+     * @return 帧率上限
+     */
+    public static RateLimit interval(long interval, TimeUnit unit) {
+        return new RateLimit(unit.toNanos(interval), 1, false);
+    }
+
+    /**
+     * 每秒最多投递的帧数
+     * @param fps 帧率
+     * @return 帧率上限
+     */
+    public static RateLimit perSecond(double fps) {
+        return new RateLimit(interval(fps), 1, false);
+    }
+
+    /**
+     * 令牌桶，平均帧率不超过fps，允许连续投递burst帧
+     * @param fps 帧率
+     * @param burst 桶容量
+     * @return 帧率上限
+     */
+    public static RateLimit tokenBucket(double fps, int burst) {
+        return new RateLimit(interval(fps), burst, false);
+    }
+
+    /**
+     * 投递窗口内最新的帧，而不是第一帧
+     * @return 帧率上限
+     */
+    public RateLimit latest() {
+        return new RateLimit(intervalNanos, burst, true);
+    }
+
+    private static long interval(double fps) {
+        if (!(fps > 0)) {
+            throw new IllegalArgumentException("帧率必须大于0: " + fps);
+        }
+        return (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public boolean isLatest() {
+        return latest;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit(fps=" + String.format("%.2f", 1e9 / intervalNanos) + ", burst=" + burst
+                + ", latest=" + latest + ")";
+    }
+}
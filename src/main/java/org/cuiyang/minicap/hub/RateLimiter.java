@@ -0,0 +1,126 @@
+package org.cuiyang.minicap.hub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.cuiyang.minicap.frame.Frame;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订阅的限流状态，GCRA算法，等价于令牌桶
+ * <p>
+ * 只记录下一个令牌的理论到达时间(TAT)，到达时间不早于 TAT - (burst - 1) * interval 时放行。
+ * latest模式下等待中的帧在锁内以不阻塞的方式投递，有帧等待时不直接放行，同一线程发布的帧按顺序进入收件队列。
+ *
+ * @author cuiyang
+ */
+final class RateLimiter {
+
+    /** 投递窗口内最新的帧 */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("rate-limit-%d").setDaemon(true).build());
+
+    private final RateLimit limit;
+    private final long tolerance;
+    /** 理论到达时间 */
+    private long tat;
+    /** 等待投递的最新帧，持有一个引用 */
+    private Frame pending;
+    private boolean scheduled;
+    /** 已清理，不再接收帧 */
+    private boolean cleared;
+
+    RateLimiter(RateLimit limit) {
+        this.limit = limit;
+        this.tolerance = (limit.getBurst() - 1) * limit.getIntervalNanos();
+        this.tat = System.nanoTime();
+    }
+
+    RateLimit getLimit() {
+        return limit;
+    }
+
+    /**
+     * 是否放行，放行时消耗一个令牌。latest模式下不放行的帧由限流器持有，令牌可用时投递给订阅，
+     * 被更新的帧替换时才计为丢弃
+     * @param frame 帧，调用方持有引用
+     * @param subscription 订阅
+     * @return true 放行，由调用方投递 false 丢弃或由限流器持有
+     */
+    boolean acquire(Frame frame, Subscription subscription) {
+        long now = System.nanoTime();
+        Frame replaced;
+        synchronized (this) {
+            if (cleared) {
+                return false;
+            }
+            if (pending == null && tryAcquire(now)) {
+                return true;
+            }
+            if (!limit.isLatest()) {
+                subscription.rateLimited();
+                return false;
+            }
+            replaced = pending;
+            pending = frame.retain();
+            if (!scheduled) {
+                schedule(subscription, Math.max(0, tat - tolerance - now));
+            }
+        }
+        if (replaced != null) {
+            replaced.release();
+            subscription.rateLimited();
+        }
+        return false;
+    }
+
+    /**
+     * 投递等待中的帧，不阻塞定时线程。BLOCK策略下收件队列已满时一个间隔后重试，期间更新的帧替换该帧
+     */
+    private void flush(Subscription subscription) {
+        synchronized (this) {
+            scheduled = false;
+            Frame frame = pending;
+            if (frame == null) {
+                return;
+            }
+            // 在锁内入队，之后放行的帧不会先于该帧进入收件队列
+            if (!subscription.tryOffer(frame)) {
+                schedule(subscription, limit.getIntervalNanos());
+                return;
+            }
+            pending = null;
+            // 与放行的帧一样消耗令牌，定时误差不会让令牌透支
+            tat = Math.max(tat, System.nanoTime()) + limit.getIntervalNanos();
+        }
+    }
+
+    private void schedule(Subscription subscription, long delayNanos) {
+        scheduled = true;
+        SCHEDULER.schedule(() -> flush(subscription), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private boolean tryAcquire(long now) {
+        if (now - (tat - tolerance) < 0) {
+            return false;
+        }
+        tat = Math.max(tat, now) + limit.getIntervalNanos();
+        return true;
+    }
+
+    /**
+     * 释放等待中的帧，之后不再接收帧
+     */
+    void clear() {
+        Frame frame;
+        synchronized (this) {
+            cleared = true;
+            frame = pending;
+            pending = null;
+        }
+        if (frame != null) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.cuiyang.minicap.hub;
+
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FrameQueue;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+import org.cuiyang.minicap.metrics.Histogram;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订阅
+ * <p>
+ * 每个订阅有独立的收件队列和投递策略，帧在线程池中按顺序投递给监听，同一时刻最多只有一个线程在投递。
+ * 监听抛出的异常和错误都交给{@link FrameHub}的异常处理，不中断投递。
+ * 记录监听每帧的处理耗时。可通过{@link #setRateLimit(RateLimit)}限制帧率，超出的帧在进入收件队列之前丢弃。
+ * 设置指标后，收件队列的深度和丢弃数以及从接收到监听返回的延迟计入指标。
+ *
+ * @author cuiyang
+ */
+public class Subscription implements Closeable {
+
+    private final FrameHub hub;
+    private final FrameListener listener;
+    private final DeliveryPolicy policy;
+    private final FrameQueue inbox;
+    private volatile Executor executor;
+    /** 指标，为null时不记录 */
+    private volatile FrameMetrics metrics;
+    /** 限流，为null时不限制 */
+    private volatile RateLimiter limiter;
+    /** 待处理的投递请求数，大于0时有线程在投递 */
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    /** 已通知监听订阅结束 */
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    /** 已投递的帧数 */
+    private final AtomicLong delivered = new AtomicLong();
+    /** 因超出帧率上限丢弃的帧数 */
+    private final AtomicLong rateLimited = new AtomicLong();
+    /** 待投递的心跳，0表示没有 */
+    private final AtomicLong unchanged = new AtomicLong();
+    /** 监听每帧的处理耗时(纳秒) */
+    private final Histogram listenerTime = new Histogram(TimeUnit.MINUTES.toNanos(1));
+
+    Subscription(FrameHub hub, FrameListener listener, DeliveryPolicy policy, int capacity, Executor executor) {
+        this.hub = hub;
+        this.listener = listener;
+        this.policy = policy;
+        this.inbox = policy.newQueue(capacity);
+        this.executor = executor;
+    }
+
+    /**
+     * 发布一帧，通过限流后增加引用并放入收件队列。调用方仍持有原有的引用
+     */
+    void publish(Frame frame) throws InterruptedException {
+        RateLimiter limiter = this.limiter;
+        if (limiter != null && !limiter.acquire(frame, this)) {
+            return;
+        }
+        offer(frame.retain());
+    }
+
+    /**
+     * 发布一帧，帧的引用由订阅持有
+     */
+    void offer(Frame frame) throws InterruptedException {
+        if (closed.get()) {
+            frame.release();
+            return;
+        }
+        // 新的帧之前的心跳已过时
+        unchanged.set(0);
+        inbox.offer(frame);
+        schedule();
+    }
+
+    /**
+     * 发布一帧，不阻塞。帧的引用在入队后由订阅持有
+     * @return true 已入队或订阅已取消 false BLOCK策略下收件队列已满，帧仍由调用方持有
+     */
+    boolean tryOffer(Frame frame) {
+        if (closed.get()) {
+            frame.release();
+            return true;
+        }
+        if (!inbox.tryOffer(frame)) {
+            return false;
+        }
+        unchanged.set(0);
+        schedule();
+        return true;
+    }
+
+    /**
+     * 发布画面未变化的心跳，未投递的心跳只保留最新的
+     */
+    void offerUnchanged(long suppressed) {
+        if (closed.get()) {
+            return;
+        }
+        unchanged.set(suppressed);
+        schedule();
+    }
+
+    /**
+     * 没有线程在投递时提交投递任务，线程池拒绝时丢弃收件队列中的帧，下次发布时重新提交
+     */
+    private void schedule() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            wip.set(0);
+            unchanged.set(0);
+            inbox.clear();
+            hub.handleError(listener, null, e);
+        }
+    }
+
+    /**
+     * 按顺序投递收件队列中的帧
+     */
+    private void drain() {
+        int missed = 1;
+        for (;;) {
+            Frame frame;
+            while (!closed.get() && (frame = inbox.poll()) != null) {
+                long start = System.nanoTime();
+                try {
+                    listener.onFrame(frame);
+                    delivered.incrementAndGet();
+                    FrameMetrics metrics = this.metrics;
+                    if (metrics != null) {
+                        metrics.frameDelivered(System.nanoTime() - frame.getNanoTime());
+                    }
+                } catch (Throwable e) {
+                    hub.handleError(listener, frame, e);
+                } finally {
+                    listenerTime.record(System.nanoTime() - start);
+                    frame.release();
+                }
+            }
+            long suppressed = unchanged.getAndSet(0);
+            if (suppressed > 0 && !closed.get()) {
+                try {
+                    listener.onUnchanged(suppressed);
+                } catch (Throwable e) {
+                    hub.handleError(listener, null, e);
+                }
+            }
+            if (closed.get()) {
+                inbox.clear();
+                if (completed.compareAndSet(false, true)) {
+                    try {
+                        listener.onComplete();
+                    } catch (Throwable e) {
+                        hub.handleError(listener, null, e);
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void rateLimited() {
+        rateLimited.incrementAndGet();
+    }
+
+    /**
+     * 设置指标，收件队列的深度和丢弃数以及从接收到监听返回的延迟计入指标
+     * @param metrics 指标
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+        if (metrics != null) {
+            metrics.bindListenerQueue(inbox);
+        }
+    }
+
+    /**
+     * 设置帧率上限，可在运行期间修改
+     * @param rateLimit 帧率上限，为null时不限制
+     */
+    public void setRateLimit(RateLimit rateLimit) {
+        RateLimiter old = this.limiter;
+        this.limiter = rateLimit == null ? null : new RateLimiter(rateLimit);
+        if (old != null) {
+            old.clear();
+        }
+    }
+
+    /**
+     * 帧率上限
+     * @return 帧率上限，为null时不限制
+     */
+    public RateLimit getRateLimit() {
+        RateLimiter limiter = this.limiter;
+        return limiter == null ? null : limiter.getLimit();
+    }
+
+    /**
+     * 监听
+     * @return 帧监听
+     */
+    public FrameListener getListener() {
+        return listener;
+    }
+
+    /**
+     * 监听每帧的处理耗时
+     * @return 耗时(纳秒)的直方图
+     */
+    public Histogram getListenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * 投递策略
+     * @return 投递策略
+     */
+    public DeliveryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 已投递的帧数
+     * @return 帧数
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * 因订阅者处理不及时而丢弃的帧数
+     * @return 帧数
+     */
+    public long getDropped() {
+        return inbox.getDropped();
+    }
+
+    /**
+     * 因超出帧率上限丢弃的帧数
+     * @return 帧数
+     */
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    /**
+     * 收件队列中等待投递的帧数
+     * @return 帧数
+     */
+    public int getQueued() {
+        return inbox.size();
+    }
+
+    /**
+     * 是否已取消
+     * @return true 已取消
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 取消订阅，不影响其他订阅者
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            hub.remove(this);
+            RateLimiter limiter = this.limiter;
+            if (limiter != null) {
+                limiter.clear();
+            }
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package org.cuiyang.minicap.metrics;
+
+import org.cuiyang.minicap.frame.FrameQueue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 帧指标
+ * <p>
+ * 单台设备的指标同时累加到所属的汇总指标中。记录方法在接收线程中调用，只做原子加，不分配内存；
+ * 速率在读取时按距上次计算的间隔(至少1秒)计算。
+ *
+ * @author cuiyang
+ */
+public class FrameMetrics implements FrameMetricsMBean {
+
+    /** 最大可记录的帧大小 */
+    private static final long MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    /** 最大可记录的延迟 */
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+    /** 最大可记录的卡顿时长 */
+    private static final long MAX_STALL = TimeUnit.HOURS.toNanos(1);
+
+    /** 汇总指标，为null时为顶层 */
+    private final FrameMetrics parent;
+    /** 汇总的设备指标 */
+    private final List<FrameMetrics> children = new CopyOnWriteArrayList<>();
+
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder serverRestarts = new LongAdder();
+    private final LongAdder framesSuppressed = new LongAdder();
+    private final Histogram frameSize = new Histogram(MAX_FRAME_SIZE);
+    private final Histogram latency = new Histogram(MAX_LATENCY);
+    private final Histogram switchLatency = new Histogram(MAX_LATENCY);
+    private final Histogram frameGap = new Histogram(MAX_LATENCY);
+    private final Histogram stallDuration = new Histogram(MAX_STALL);
+    private final Histogram recoveryTime = new Histogram(MAX_STALL);
+    private final LongAdder stalls = new LongAdder();
+    /** 最近一帧的接收时间(System.nanoTime)，0表示还没有收到 */
+    private volatile long lastFrameNanos;
+    /** 最近一次切换的耗时(纳秒) */
+    private volatile long lastSwitchLatency;
+    private final Rate fps = new Rate();
+    private final Rate bytesPerSecond = new Rate();
+    /** 帧队列 */
+    private volatile FrameQueue queue;
+    /** 帧监听的收件队列 */
+    private volatile FrameQueue listenerQueue;
+    /** 已替换的帧监听收件队列的丢弃数 */
+    private final LongAdder listenerDropped = new LongAdder();
+
+    public FrameMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param parent 汇总指标
+     */
+    public FrameMetrics(FrameMetrics parent) {
+        this.parent = parent;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    /**
+     * 记录接收到一帧
+     * @param length 帧大小
+     */
+    public void frameReceived(int length) {
+        long now = System.nanoTime();
+        long last = lastFrameNanos;
+        lastFrameNanos = now;
+        received(length, last != 0 ? now - last : -1);
+    }
+
+    /**
+     * 汇总指标只记录设备的帧间隔，不计算跨设备的间隔
+     * @param gap 帧间隔(纳秒)，-1表示第一帧
+     */
+    private void received(int length, long gap) {
+        framesReceived.increment();
+        bytesReceived.add(length);
+        frameSize.record(length);
+        if (gap >= 0) {
+            frameGap.record(gap);
+        }
+        if (parent != null) {
+            parent.received(length, gap);
+        }
+    }
+
+    /**
+     * 记录从接收到监听返回的延迟
+     * @param nanos 纳秒
+     */
+    public void frameDelivered(long nanos) {
+        latency.record(nanos);
+        if (parent != null) {
+            parent.frameDelivered(nanos);
+        }
+    }
+
+    /**
+     * 记录一次重连
+     */
+    public void reconnected() {
+        reconnects.increment();
+        if (parent != null) {
+            parent.reconnected();
+        }
+    }
+
+    /**
+     * 记录一次Minicap服务重启
+     */
+    public void serverRestarted() {
+        serverRestarts.increment();
+        if (parent != null) {
+            parent.serverRestarted();
+        }
+    }
+
+    /**
+     * 记录过滤了一帧重复帧
+     */
+    public void frameSuppressed() {
+        framesSuppressed.increment();
+        if (parent != null) {
+            parent.frameSuppressed();
+        }
+    }
+
+    /**
+     * 记录一次重新配置，从开始到新的Minicap服务输出第一帧的耗时
+     * @param nanos 纳秒
+     */
+    public void switched(long nanos) {
+        switchLatency.record(nanos);
+        lastSwitchLatency = nanos;
+        if (parent != null) {
+            parent.switched(nanos);
+        }
+    }
+
+    /**
+     * 记录检测到一次卡顿
+     */
+    public void stallDetected() {
+        stalls.increment();
+        if (parent != null) {
+            parent.stallDetected();
+        }
+    }
+
+    /**
+     * 记录卡顿恢复
+     * @param stallNanos 从卡顿前最后一帧到恢复后第一帧的时长
+     * @param recoveryNanos 从检测到卡顿到恢复后第一帧的时长
+     */
+    public void stallRecovered(long stallNanos, long recoveryNanos) {
+        stallDuration.record(stallNanos);
+        recoveryTime.record(recoveryNanos);
+        if (parent != null) {
+            parent.stallRecovered(stallNanos, recoveryNanos);
+        }
+    }
+
+    /**
+     * 最近一帧的接收时间，汇总指标中总是为0
+     * @return System.nanoTime，0表示还没有收到
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    /**
+     * 绑定帧队列，读取队列深度和丢弃数
+     * @param queue 帧队列
+     */
+    public void bindQueue(FrameQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * 绑定帧监听的收件队列，读取队列深度和丢弃数。替换前的队列的丢弃数保留
+     * @param queue 收件队列，为null时解除绑定
+     */
+    public synchronized void bindListenerQueue(FrameQueue queue) {
+        FrameQueue old = this.listenerQueue;
+        if (old == queue) {
+            return;
+        }
+        if (old != null) {
+            listenerDropped.add(old.getDropped());
+        }
+        this.listenerQueue = queue;
+    }
+
+    /**
+     * 从汇总指标中移除
+     */
+    public void detach() {
+        if (parent != null) {
+            parent.children.remove(this);
+        }
+    }
+
+    public Histogram getFrameSizeHistogram() {
+        return frameSize;
+    }
+
+    public Histogram getLatencyHistogram() {
+        return latency;
+    }
+
+    public Histogram getSwitchLatencyHistogram() {
+        return switchLatency;
+    }
+
+    public Histogram getFrameGapHistogram() {
+        return frameGap;
+    }
+
+    public Histogram getStallDurationHistogram() {
+        return stallDuration;
+    }
+
+    public Histogram getRecoveryTimeHistogram() {
+        return recoveryTime;
+    }
+
+    @Override
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public double getFps() {
+        return fps.get(getFramesReceived());
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return bytesPerSecond.get(getBytesReceived());
+    }
+
+    @Override
+    public double getFrameSizeMean() {
+        return frameSize.getMean();
+    }
+
+    @Override
+    public long getFrameSizeP50() {
+        return frameSize.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getFrameSizeP99() {
+        return frameSize.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getFrameSizeMax() {
+        return frameSize.getMax();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        FrameQueue queue = this.queue;
+        int depth = queue != null ? queue.size() : 0;
+        FrameQueue listenerQueue = this.listenerQueue;
+        if (listenerQueue != null) {
+            depth += listenerQueue.size();
+        }
+        for (FrameMetrics child : children) {
+            depth += child.getQueueDepth();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        FrameQueue queue = this.queue;
+        long dropped = queue != null ? queue.getDropped() : 0;
+        FrameQueue listenerQueue = this.listenerQueue;
+        dropped += listenerDropped.sum() + (listenerQueue != null ? listenerQueue.getDropped() : 0);
+        for (FrameMetrics child : children) {
+            dropped += child.getDroppedFrames();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getSuppressedFrames() {
+        return framesSuppressed.sum();
+    }
+
+    @Override
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getServerRestarts() {
+        return serverRestarts.sum();
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getLatencyP999Millis() {
+        return latency.getValueAtPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return latency.getMax() / 1e6;
+    }
+
+    @Override
+    public long getSwitches() {
+        return switchLatency.getCount();
+    }
+
+    @Override
+    public double getSwitchLatencyLastMillis() {
+        return lastSwitchLatency / 1e6;
+    }
+
+    @Override
+    public double getSwitchLatencyMaxMillis() {
+        return switchLatency.getMax() / 1e6;
+    }
+
+    @Override
+    public double getFrameGapP99Millis() {
+        return frameGap.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getFrameGapMaxMillis() {
+        return frameGap.getMax() / 1e6;
+    }
+
+    @Override
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    @Override
+    public double getStallDurationP99Millis() {
+        return stallDuration.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getStallDurationMaxMillis() {
+        return stallDuration.getMax() / 1e6;
+    }
+
+    @Override
+    public double getRecoveryTimeP99Millis() {
+        return recoveryTime.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getRecoveryTimeMaxMillis() {
+        return recoveryTime.getMax() / 1e6;
+    }
+
+    @Override
+    public void resetHistograms() {
+        frameSize.reset();
+        latency.reset();
+        switchLatency.reset();
+        frameGap.reset();
+        stallDuration.reset();
+        recoveryTime.reset();
+    }
+
+    /**
+     * 速率，读取时计算
+     */
+    private static class Rate {
+        private long lastTime = System.nanoTime();
+        private long lastCount;
+        private double rate;
+
+        synchronized double get(long count) {
+            long now = System.nanoTime();
+            long elapsed = now - lastTime;
+            if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+                rate = (count - lastCount) * 1e9 / elapsed;
+                lastTime = now;
+                lastCount = count;
+            }
+            return rate;
+        }
+    }
+}
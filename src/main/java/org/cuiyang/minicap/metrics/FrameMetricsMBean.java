@@ -0,0 +1,96 @@
+package org.cuiyang.minicap.metrics;
+
+/**
+ * 帧指标 MBean
+ *
+ * @author cuiyang
+ */
+public interface FrameMetricsMBean {
+
+    /** 接收的帧数 */
+    long getFramesReceived();
+
+    /** 接收的字节数 */
+    long getBytesReceived();
+
+    /** 最近的接收帧率 */
+    double getFps();
+
+    /** 最近的接收速率(字节/秒) */
+    double getBytesPerSecond();
+
+    /** 平均帧大小 */
+    double getFrameSizeMean();
+
+    /** 帧大小中位数 */
+    long getFrameSizeP50();
+
+    /** 帧大小P99 */
+    long getFrameSizeP99();
+
+    /** 最大帧大小 */
+    long getFrameSizeMax();
+
+    /** 队列中的帧数 */
+    int getQueueDepth();
+
+    /** 队列丢弃的帧数 */
+    long getDroppedFrames();
+
+    /** 重复帧过滤的帧数 */
+    long getSuppressedFrames();
+
+    /** 重连次数 */
+    long getReconnects();
+
+    /** Minicap服务重启次数 */
+    long getServerRestarts();
+
+    /** 接收到监听返回的平均延迟(毫秒) */
+    double getLatencyMeanMillis();
+
+    /** 接收到监听返回的延迟中位数(毫秒) */
+    double getLatencyP50Millis();
+
+    /** 接收到监听返回的延迟P99(毫秒) */
+    double getLatencyP99Millis();
+
+    /** 接收到监听返回的延迟P99.9(毫秒) */
+    double getLatencyP999Millis();
+
+    /** 接收到监听返回的最大延迟(毫秒) */
+    double getLatencyMaxMillis();
+
+    /** 重新配置的次数 */
+    long getSwitches();
+
+    /** 最近一次重新配置的耗时(毫秒) */
+    double getSwitchLatencyLastMillis();
+
+    /** 重新配置的最大耗时(毫秒) */
+    double getSwitchLatencyMaxMillis();
+
+    /** 帧间隔P99(毫秒) */
+    double getFrameGapP99Millis();
+
+    /** 最大帧间隔(毫秒) */
+    double getFrameGapMaxMillis();
+
+    /** 检测到的卡顿次数 */
+    long getStalls();
+
+    /** 卡顿时长P99(毫秒) */
+    double getStallDurationP99Millis();
+
+    /** 最大卡顿时长(毫秒) */
+    double getStallDurationMaxMillis();
+
+    /** 从检测到卡顿到恢复的耗时P99(毫秒) */
+    double getRecoveryTimeP99Millis();
+
+    /** 从检测到卡顿到恢复的最大耗时(毫秒) */
+    double getRecoveryTimeMaxMillis();
+
+    /** 清空直方图 */
+    void resetHistograms();
+}
@@ -0,0 +1,90 @@
+package org.cuiyang.minicap.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * 指标注册，将设备指标和汇总指标注册为MBean
+ * <p>
+ * 汇总指标: org.cuiyang.minicap:type=FrameMetrics,name=aggregate<br>
+ * 设备指标: org.cuiyang.minicap:type=FrameMetrics,name=设备序列号
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class MetricsRegistry {
+
+    private static final String DOMAIN = "org.cuiyang.minicap";
+    private static final FrameMetrics AGGREGATE = new FrameMetrics();
+
+    static {
+        register("aggregate", AGGREGATE);
+    }
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * 获取汇总指标
+     * @return 汇总指标
+     */
+    public static FrameMetrics getAggregate() {
+        return AGGREGATE;
+    }
+
+    /**
+     * 创建设备指标并注册，已存在同名的MBean时替换
+     * @param name 名称，一般为设备序列号
+     * @return 设备指标
+     */
+    public static FrameMetrics register(String name) {
+        FrameMetrics metrics = new FrameMetrics(AGGREGATE);
+        register(name, metrics);
+        return metrics;
+    }
+
+    /**
+     * 注销设备指标
+     * @param name 名称
+     * @param metrics 设备指标
+     */
+    public static void unregister(String name, FrameMetrics metrics) {
+        metrics.detach();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.warn("注销指标失败 name: {}", name, e);
+        }
+    }
+
+    /**
+     * 获取MBean的名称
+     * @param name 名称
+     * @return ObjectName
+     * @throws JMException 名称不合法
+     */
+    public static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=FrameMetrics,name=" + ObjectName.quote(name));
+    }
+
+    private static void register(String name, FrameMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            log.warn("注册指标失败 name: {}", name, e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.cuiyang.minicap.record;
+
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * minicap数据流的原始转储
+ * <p>
+ * 格式与minicap的socket输出相同：可选的Banner，之后为4字节小端长度前缀的JPEG帧。
+ * 文件映射到内存，打开时扫描一次长度前缀建立索引。转储中没有时间戳，按固定帧率生成。
+ *
+ * @author cuiyang
+ */
+public class CaptureDump implements FrameSource {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int size;
+    /** 帧间隔(毫秒) */
+    private final double interval;
+
+    private CaptureDump(FileChannel channel, MappedByteBuffer data, int[] offsets, int[] lengths, int size, double fps) {
+        this.channel = channel;
+        this.data = data;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.size = size;
+        this.interval = 1000 / fps;
+    }
+
+    /**
+     * 打开转储文件
+     * @param file 文件
+     * @param fps 帧率，用于生成时间戳
+     * @return CaptureDump
+     * @throws IOException 读取失败或文件过大
+     */
+    public static CaptureDump open(File file, double fps) throws IOException {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("帧率必须大于0");
+        }
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("转储文件过大: " + file);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            int[] offsets = new int[1024];
+            int[] lengths = new int[1024];
+            int size = 0;
+            int position = bannerLength(data);
+            int limit = data.limit();
+            while (limit - position >= 4) {
+                int length = data.getInt(position);
+                if (length <= 0 || length > limit - position - 4) {
+                    // 末尾不完整的帧
+                    break;
+                }
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    lengths = Arrays.copyOf(lengths, size * 2);
+                }
+                offsets[size] = position + 4;
+                lengths[size] = length;
+                size++;
+                position += 4 + length;
+            }
+            return new CaptureDump(channel, data, offsets, lengths, size, fps);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Banner以版本1和Banner长度开头，其后紧跟第一帧的JPEG SOI
+     */
+    private static int bannerLength(ByteBuffer data) {
+        if (data.limit() < 2 || data.get(0) != 1) {
+            return 0;
+        }
+        int length = data.get(1) & 0xFF;
+        if (length < 2 || data.limit() < length + 6) {
+            return 0;
+        }
+        if ((data.get(length + 4) & 0xFF) == 0xFF && (data.get(length + 5) & 0xFF) == 0xD8) {
+            return length;
+        }
+        return 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long getTimestamp(int i) {
+        checkIndex(i);
+        return Math.round(i * interval);
+    }
+
+    @Override
+    public Frame getFrame(int i) {
+        checkIndex(i);
+        ByteBuffer view = data.duplicate();
+        view.position(offsets[i]).limit(offsets[i] + lengths[i]);
+        Frame frame = Frame.wrap(view);
+        frame.setSequence(i + 1);
+        frame.setTimestamp(getTimestamp(i));
+        return frame;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("帧编号: " + i + ", 帧数: " + size);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
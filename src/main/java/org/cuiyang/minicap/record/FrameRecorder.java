@@ -0,0 +1,193 @@
+package org.cuiyang.minicap.record;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FrameQueue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 帧录制
+ * <p>
+ * 帧追加到预分配并映射到内存的分段文件中，同时记录索引(序号、时间戳、偏移、长度)，通过{@link Recording}按时间定位。
+ * 分段写满或帧数达到上限时切换到新的分段。写入在独立的线程中进行，接收线程只负责入队；
+ * 写入不及时时丢弃最旧的帧，录制不会拖慢接收。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FrameRecorder extends Thread implements FrameListener, Closeable {
+
+    /** 默认的分段大小 64MB */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /** 默认的队列容量 */
+    public static final int DEFAULT_CAPACITY = 256;
+    /** 每帧的最小平均大小，用于估算每个分段的最大帧数 */
+    private static final int MIN_AVERAGE_FRAME_SIZE = 4096;
+
+    private final File directory;
+    private final int segmentSize;
+    private final FrameQueue queue;
+    /** 每次切换分段时写入磁盘 */
+    private boolean force = false;
+    private volatile boolean running = true;
+
+    private Segment segment;
+    /** 下一个分段的编号 */
+    private int nextNumber;
+
+    /** 已录制的帧数 */
+    private final AtomicLong recordedFrames = new AtomicLong();
+    /** 已录制的字节数 */
+    private final AtomicLong recordedBytes = new AtomicLong();
+    /** 已创建的分段数 */
+    private final AtomicLong segments = new AtomicLong();
+
+    public FrameRecorder(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param directory 录制目录，已有分段时编号接着递增
+     * @param segmentSize 分段大小
+     * @param capacity 等待写入的最大帧数
+     */
+    public FrameRecorder(File directory, int segmentSize, int capacity) {
+        super("minicap-recorder");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.queue = DeliveryPolicy.DROP_OLDEST.newQueue(capacity);
+        this.nextNumber = Recording.lastNumber(directory) + 1;
+        setDaemon(true);
+    }
+
+    /**
+     * 切换分段时是否写入磁盘，默认由操作系统决定
+     * @param force true 写入磁盘
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("创建录制目录失败: " + directory);
+        }
+        super.start();
+    }
+
+    /**
+     * 入队，不阻塞
+     */
+    @Override
+    public void onFrame(Frame frame) {
+        if (!running) {
+            return;
+        }
+        try {
+            queue.offer(frame.retain());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running || queue.size() > 0) {
+                Frame frame = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    write(frame);
+                } catch (IOException e) {
+                    log.error("录制失败 directory: {}", directory, e);
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.clear();
+            closeSegment();
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        long timestamp = frame.getTimestamp() > 0 ? frame.getTimestamp() : System.currentTimeMillis();
+        if (segment == null || !segment.append(frame.buffer(), frame.getSequence(), timestamp)) {
+            closeSegment();
+            int size = Math.max(segmentSize, frame.length());
+            segment = Segment.create(directory, nextNumber++, size, Math.max(1, size / MIN_AVERAGE_FRAME_SIZE));
+            segments.incrementAndGet();
+            log.debug("新建录制分段 directory: {}, segment: {}", directory, segment.getNumber());
+            segment.append(frame.buffer(), frame.getSequence(), timestamp);
+        }
+        recordedFrames.incrementAndGet();
+        recordedBytes.addAndGet(frame.length());
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (force) {
+                segment.force();
+            }
+            segment.close();
+        } catch (IOException e) {
+            log.error("关闭录制分段失败 segment: {}", segment, e);
+        }
+        segment = null;
+    }
+
+    /**
+     * 已录制的帧数
+     * @return 帧数
+     */
+    public long getRecordedFrames() {
+        return recordedFrames.get();
+    }
+
+    /**
+     * 已录制的字节数
+     * @return 字节数
+     */
+    public long getRecordedBytes() {
+        return recordedBytes.get();
+    }
+
+    /**
+     * 因写入不及时而丢弃的帧数
+     * @return 帧数
+     */
+    public long getDroppedFrames() {
+        return queue.getDropped();
+    }
+
+    /**
+     * 已创建的分段数
+     * @return 分段数
+     */
+    public long getSegments() {
+        return segments.get();
+    }
+
+    /**
+     * 停止录制，写完队列中的帧后关闭分段
+     */
+    @Override
+    public void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,184 @@
+package org.cuiyang.minicap.record;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.ScreenListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.hub.Subscription;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 回放
+ * <p>
+ * 读取录制或minicap数据流的转储，按与{@link org.cuiyang.minicap.ScreenProjection}相同的监听接口投递，不需要连接设备。
+ * 按原始时间间隔、N倍速或不等待回放。帧直接引用映射的文件，不拷贝，不等待时可测出消费者的处理上限。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FrameReplayer extends Thread implements Closeable {
+
+    /** 不等待，尽快回放 */
+    public static final double MAX_SPEED = 0;
+
+    private final FrameSource source;
+    private FrameListener listener;
+    private final FrameHub hub = new FrameHub();
+    /** 指标 */
+    private FrameMetrics metrics = new FrameMetrics();
+    /** 倍速，1为原始速度，{@link #MAX_SPEED}为不等待 */
+    private double speed = 1;
+    /** 是否循环回放 */
+    private boolean loop = false;
+    private volatile boolean running = true;
+
+    /** 已回放的帧数 */
+    private final AtomicLong replayedFrames = new AtomicLong();
+
+    public FrameReplayer(FrameSource source) {
+        super("minicap-replayer");
+        this.source = source;
+        setDaemon(true);
+    }
+
+    /**
+     * 打开录制目录或转储文件，转储文件按30fps生成时间戳
+     * @param file 录制目录或转储文件
+     * @return FrameReplayer
+     * @throws IOException 读取失败
+     */
+    public static FrameReplayer open(File file) throws IOException {
+        return new FrameReplayer(file.isDirectory() ? Recording.open(file) : CaptureDump.open(file, 30));
+    }
+
+    /**
+     * 设置屏幕监听，每帧拷贝一次
+     * @param listener 屏幕监听
+     */
+    public void setScreenListener(ScreenListener listener) {
+        this.listener = FrameListener.copying(listener);
+    }
+
+    /**
+     * 设置帧监听，帧不拷贝
+     * @param listener 帧监听
+     */
+    public void setFrameListener(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 订阅帧
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy) {
+        return hub.subscribe(listener, policy);
+    }
+
+    /**
+     * 设置倍速，默认为1
+     * @param speed 倍速，{@link #MAX_SPEED}为不等待
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * 设置是否循环回放
+     * @param loop true 循环
+     */
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        try {
+            do {
+                replay();
+            } while (loop && running && source.size() > 0);
+        } catch (Exception e) {
+            log.error("回放失败", e);
+        } finally {
+            close();
+        }
+    }
+
+    private void replay() {
+        long startNanos = System.nanoTime();
+        long firstTimestamp = source.size() > 0 ? source.getTimestamp(0) : 0;
+        for (int i = 0; i < source.size() && running; i++) {
+            Frame frame = source.getFrame(i);
+            if (speed > 0) {
+                long deadline = startNanos + (long) (TimeUnit.MILLISECONDS.toNanos(frame.getTimestamp() - firstTimestamp) / speed);
+                long wait;
+                while (running && (wait = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+            frame.setNanoTime(System.nanoTime());
+            metrics.frameReceived(frame.length());
+            try {
+                hub.onFrame(frame);
+                if (listener != null) {
+                    listener.onFrame(frame);
+                }
+                metrics.frameDelivered(System.nanoTime() - frame.getNanoTime());
+            } catch (Exception e) {
+                log.error("帧监听运行错误", e);
+            } finally {
+                frame.release();
+            }
+            replayedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * 已回放的帧数
+     * @return 帧数
+     */
+    public long getReplayedFrames() {
+        return replayedFrames.get();
+    }
+
+    /**
+     * 是否运行
+     * @return true 运行中
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 停止回放并关闭数据源
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(this);
+        IOUtils.closeQuietly(hub);
+        if (Thread.currentThread() == this || !isAlive()) {
+            IOUtils.closeQuietly(source);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.cuiyang.minicap.record;
+
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+
+/**
+ * 可按编号随机访问的帧序列
+ *
+ * @author cuiyang
+ */
+public interface FrameSource extends Closeable {
+
+    /**
+     * 帧数
+     * @return 帧数
+     */
+    int size();
+
+    /**
+     * 第i帧的时间戳
+     * @param i 帧编号
+     * @return 时间戳(毫秒)
+     */
+    long getTimestamp(int i);
+
+    /**
+     * 读取第i帧，不拷贝，关闭后不可访问
+     * @param i 帧编号
+     * @return 帧
+     */
+    Frame getFrame(int i);
+}
@@ -0,0 +1,184 @@
+package org.cuiyang.minicap.record;
+
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 录制的读取
+ * <p>
+ * 打开目录中的所有分段，帧按录制顺序编号。分段和索引映射到内存，按时间定位为两次二分查找，读取帧不拷贝。
+ *
+ * @author cuiyang
+ */
+public class Recording implements FrameSource {
+
+    private final List<Segment> segments;
+    /** 每个分段第一帧的编号 */
+    private final int[] starts;
+    private final int size;
+
+    private Recording(List<Segment> segments) {
+        this.segments = segments;
+        this.starts = new int[segments.size()];
+        int size = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            starts[i] = size;
+            size += segments.get(i).count();
+        }
+        this.size = size;
+    }
+
+    /**
+     * 打开录制目录
+     * @param directory 录制目录
+     * @return Recording
+     * @throws IOException 读取失败
+     */
+    public static Recording open(File directory) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try {
+            for (int number : numbers(directory)) {
+                Segment segment = Segment.open(directory, number);
+                if (segment.count() > 0) {
+                    segments.add(segment);
+                } else {
+                    segment.close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            throw e;
+        }
+        return new Recording(segments);
+    }
+
+    /**
+     * 帧数
+     * @return 帧数
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 第i帧的时间戳
+     * @param i 帧编号
+     * @return 时间戳(毫秒)
+     */
+    @Override
+    public long getTimestamp(int i) {
+        int s = segmentOf(i);
+        return segments.get(s).timestamp(i - starts[s]);
+    }
+
+    /**
+     * 第i帧的序号
+     * @param i 帧编号
+     * @return 序号
+     */
+    public long getSequence(int i) {
+        int s = segmentOf(i);
+        return segments.get(s).sequence(i - starts[s]);
+    }
+
+    /**
+     * 读取第i帧，帧数据直接引用映射的文件，录制关闭后不可访问
+     * @param i 帧编号
+     * @return 帧
+     */
+    @Override
+    public Frame getFrame(int i) {
+        int s = segmentOf(i);
+        Segment segment = segments.get(s);
+        int j = i - starts[s];
+        Frame frame = Frame.wrap(segment.slice(j));
+        frame.setSequence(segment.sequence(j));
+        frame.setTimestamp(segment.timestamp(j));
+        return frame;
+    }
+
+    /**
+     * 查找第一个时间戳不小于指定时间的帧
+     * @param timestamp 时间戳(毫秒)
+     * @return 帧编号，都小于时返回size()
+     */
+    public int seek(long timestamp) {
+        int low = 0;
+        int high = segments.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = segments.get(mid);
+            if (segment.timestamp(segment.count() - 1) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == segments.size()) {
+            return size;
+        }
+        return starts[low] + segments.get(low).seek(timestamp);
+    }
+
+    private int segmentOf(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("帧编号: " + i + ", 帧数: " + size);
+        }
+        int low = 0;
+        int high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= i) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * 目录中分段的编号，按顺序
+     */
+    static TreeSet<Integer> numbers(File directory) {
+        TreeSet<Integer> numbers = new TreeSet<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return numbers;
+        }
+        for (String name : names) {
+            if (name.endsWith(Segment.INDEX_SUFFIX)) {
+                try {
+                    numbers.add(Integer.parseInt(name.substring(0, name.length() - Segment.INDEX_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // 不是分段文件
+                }
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * 目录中最大的分段编号
+     * @return 编号，没有分段时为0
+     */
+    static int lastNumber(File directory) {
+        TreeSet<Integer> numbers = numbers(directory);
+        return numbers.isEmpty() ? 0 : numbers.last();
+    }
+}
@@ -0,0 +1,251 @@
+package org.cuiyang.minicap.record;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录制分段
+ * <p>
+ * 每个分段由数据文件和索引文件组成，创建时按固定大小预分配并映射到内存。
+ * 数据文件依次存放JPEG；索引文件为16字节的文件头(魔数、版本、帧数)加上每帧24字节的索引项(序号、时间戳、偏移、长度)。
+ * 先写数据和索引项再更新帧数，进程异常退出时已记录的帧仍然完整。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+final class Segment implements Closeable {
+
+    static final String DATA_SUFFIX = ".data";
+    static final String INDEX_SUFFIX = ".index";
+
+    private static final int MAGIC = 0x4D435849;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int ENTRY_SIZE = 24;
+
+    private final int number;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer data;
+    private final MappedByteBuffer index;
+    private final int maxEntries;
+    /** 是否为写入打开 */
+    private final boolean writable;
+    /** 帧数 */
+    private int count;
+    /** 数据长度 */
+    private int size;
+
+    private Segment(int number, FileChannel dataChannel, FileChannel indexChannel,
+                    MappedByteBuffer data, MappedByteBuffer index, boolean writable) {
+        this.number = number;
+        this.dataChannel = dataChannel;
+        this.indexChannel = indexChannel;
+        this.data = data;
+        this.index = index;
+        this.maxEntries = (index.capacity() - HEADER_SIZE) / ENTRY_SIZE;
+        this.writable = writable;
+    }
+
+    /**
+     * 创建分段用于写入
+     * @param directory 目录
+     * @param number 分段编号
+     * @param dataSize 数据文件大小
+     * @param maxEntries 最大帧数
+     * @return 分段
+     * @throws IOException 创建失败
+     */
+    static Segment create(File directory, int number, int dataSize, int maxEntries) throws IOException {
+        File dataFile = new File(directory, name(number) + DATA_SUFFIX);
+        File indexFile = new File(directory, name(number) + INDEX_SUFFIX);
+        FileChannel dataChannel = new RandomAccessFile(dataFile, "rw").getChannel();
+        FileChannel indexChannel = null;
+        try {
+            indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+            MappedByteBuffer data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, dataSize);
+            MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) maxEntries * ENTRY_SIZE);
+            index.putInt(0, MAGIC);
+            index.putInt(4, VERSION);
+            index.putInt(COUNT_OFFSET, 0);
+            return new Segment(number, dataChannel, indexChannel, data, index, true);
+        } catch (IOException | RuntimeException e) {
+            dataChannel.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 打开已有的分段用于读取
+     * @param directory 目录
+     * @param number 分段编号
+     * @return 分段
+     * @throws IOException 打开失败或格式错误
+     */
+    static Segment open(File directory, int number) throws IOException {
+        File dataFile = new File(directory, name(number) + DATA_SUFFIX);
+        File indexFile = new File(directory, name(number) + INDEX_SUFFIX);
+        FileChannel dataChannel = new RandomAccessFile(dataFile, "r").getChannel();
+        FileChannel indexChannel = null;
+        try {
+            indexChannel = new RandomAccessFile(indexFile, "r").getChannel();
+            MappedByteBuffer data = dataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataChannel.size());
+            MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+                throw new IOException("索引文件格式错误: " + indexFile);
+            }
+            Segment segment = new Segment(number, dataChannel, indexChannel, data, index, false);
+            segment.count = Math.min(index.getInt(COUNT_OFFSET), segment.maxEntries);
+            if (segment.count > 0) {
+                segment.size = segment.offset(segment.count - 1) + segment.length(segment.count - 1);
+            }
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            dataChannel.close();
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    static String name(int number) {
+        return String.format("%08d", number);
+    }
+
+    /**
+     * 追加一帧
+     * @param frame 帧数据
+     * @param sequence 序号
+     * @param timestamp 时间戳
+     * @return false 空间不足
+     */
+    boolean append(ByteBuffer frame, long sequence, long timestamp) {
+        int length = frame.remaining();
+        if (count >= maxEntries || data.capacity() - size < length) {
+            return false;
+        }
+        ByteBuffer target = data.duplicate();
+        target.position(size);
+        target.put(frame);
+        int entry = HEADER_SIZE + count * ENTRY_SIZE;
+        index.putLong(entry, sequence);
+        index.putLong(entry + 8, timestamp);
+        index.putInt(entry + 16, size);
+        index.putInt(entry + 20, length);
+        size += length;
+        index.putInt(COUNT_OFFSET, ++count);
+        return true;
+    }
+
+    int getNumber() {
+        return number;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * 数据长度
+     */
+    int size() {
+        return size;
+    }
+
+    long sequence(int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE);
+    }
+
+    long timestamp(int i) {
+        return index.getLong(HEADER_SIZE + i * ENTRY_SIZE + 8);
+    }
+
+    int offset(int i) {
+        return index.getInt(HEADER_SIZE + i * ENTRY_SIZE + 16);
+    }
+
+    int length(int i) {
+        return index.getInt(HEADER_SIZE + i * ENTRY_SIZE + 20);
+    }
+
+    /**
+     * 帧数据的只读视图，不拷贝
+     */
+    ByteBuffer slice(int i) {
+        ByteBuffer view = data.asReadOnlyBuffer();
+        int offset = offset(i);
+        view.position(offset).limit(offset + length(i));
+        return view.slice();
+    }
+
+    /**
+     * 二分查找第一个时间戳不小于指定时间的帧
+     * @param timestamp 时间戳
+     * @return 帧下标，都小于时返回count
+     */
+    int seek(long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 写入磁盘
+     */
+    void force() {
+        data.force();
+        index.force();
+    }
+
+    /**
+     * 关闭，写入的分段截断预分配的空间，截断失败时保留原大小
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writable && dataChannel.isOpen() && dataChannel.size() > size) {
+                force();
+                truncate(dataChannel, size);
+                truncate(indexChannel, HEADER_SIZE + (long) count * ENTRY_SIZE);
+            }
+        } finally {
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+
+    private void truncate(FileChannel channel, long size) {
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // 部分平台不能截断已映射的文件
+            log.debug("截断分段失败 segment: {}, error: {}", name(number), e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Segment(number=" + number + ", count=" + count + ", size=" + size + ")";
+    }
+}
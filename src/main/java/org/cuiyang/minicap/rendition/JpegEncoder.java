@@ -0,0 +1,52 @@
+package org.cuiyang.minicap.rendition;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * JPEG编码，每个线程复用一个{@link ImageWriter}，输出不经过磁盘缓存
+ *
+ * @author cuiyang
+ */
+final class JpegEncoder {
+
+    private static final ThreadLocal<ImageWriter> WRITER = ThreadLocal.withInitial(() -> {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("没有可用的JPEG编码器");
+        }
+        return writers.next();
+    });
+
+    private JpegEncoder() {
+    }
+
+    /**
+     * 编码
+     * @param image 图像
+     * @param quality 质量 0-100
+     * @return JPEG数据
+     * @throws IOException 编码失败
+     */
+    static byte[] encode(BufferedImage image, int quality) throws IOException {
+        ImageWriter writer = WRITER.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0, Math.min(100, quality)) / 100f);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,20 @@
+package org.cuiyang.minicap.rendition;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 输出规格
+ *
+ * @author cuiyang
+ */
+@Data
+@AllArgsConstructor
+public class Rendition {
+    /** 名称 */
+    private String name;
+    /** 降采样倍数，1为原始分辨率，直接使用原始JPEG不重新编码 */
+    private int subsampling;
+    /** JPEG质量 0-100 */
+    private int quality;
+}
@@ -0,0 +1,248 @@
+package org.cuiyang.minicap.rendition;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.hub.Subscription;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多分辨率输出
+ * <p>
+ * 一个设备一个实例。每帧在有界的{@link ForkJoinPool}中并行生成各规格，相同降采样倍数的规格共享一次解码，
+ * 生成完成后按接收顺序发布到各规格的{@link FrameHub}。没有订阅者的规格不生成。
+ * 处理中的帧达到上限时丢弃新帧，慢速编码不会积压。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class RenditionPipeline implements FrameListener, Closeable {
+
+    /** 默认的线程池，线程数为CPU核数 */
+    static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                private final AtomicInteger index = new AtomicInteger();
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("minicap-rendition-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, null, false);
+
+    /** 默认的最大处理中帧数 */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    private final Map<String, Rendition> renditions = new LinkedHashMap<>();
+    private final Map<String, FrameHub> hubs = new LinkedHashMap<>();
+    private final ForkJoinPool pool;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /** 处理中的帧数 */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /** 上一帧发布完成，下一帧在此之后发布 */
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+    private volatile boolean closed = false;
+
+    /** 生成的帧数 */
+    private final AtomicLong rendered = new AtomicLong();
+    /** 因处理不及时丢弃的帧数 */
+    private final AtomicLong skipped = new AtomicLong();
+
+    public RenditionPipeline(List<Rendition> renditions) {
+        this(renditions, DEFAULT_POOL);
+    }
+
+    public RenditionPipeline(List<Rendition> renditions, ForkJoinPool pool) {
+        for (Rendition rendition : renditions) {
+            if (rendition.getSubsampling() < 1) {
+                throw new IllegalArgumentException("降采样倍数必须大于0: " + rendition.getName());
+            }
+            if (this.renditions.put(rendition.getName(), rendition) != null) {
+                throw new IllegalArgumentException("规格名称重复: " + rendition.getName());
+            }
+            this.hubs.put(rendition.getName(), new FrameHub());
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * 设置最大处理中帧数，默认为2
+     * @param maxInFlight 帧数
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * 订阅指定规格
+     * @param name 规格名称
+     * @param listener 帧监听
+     * @param policy 投递策略
+     * @return 订阅
+     */
+    public Subscription subscribe(String name, FrameListener listener, DeliveryPolicy policy) {
+        return getHub(name).subscribe(listener, policy);
+    }
+
+    /**
+     * 指定规格的帧广播
+     * @param name 规格名称
+     * @return 帧广播
+     */
+    public FrameHub getHub(String name) {
+        FrameHub hub = hubs.get(name);
+        if (hub == null) {
+            throw new IllegalArgumentException("规格不存在: " + name);
+        }
+        return hub;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        if (closed) {
+            return;
+        }
+        List<Rendition> active = new ArrayList<>();
+        for (Rendition rendition : renditions.values()) {
+            if (hubs.get(rendition.getName()).hasSubscribers()) {
+                active.add(rendition);
+            }
+        }
+        if (active.isEmpty()) {
+            return;
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            skipped.incrementAndGet();
+            return;
+        }
+        frame.retain();
+        CompletableFuture<Map<String, Frame>> results = render(frame, active);
+        synchronized (this) {
+            tail = tail.thenCombine(results, (v, frames) -> {
+                publish(frames);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 并行生成各规格，完成后释放原始帧的引用
+     */
+    private CompletableFuture<Map<String, Frame>> render(Frame frame, List<Rendition> active) {
+        Map<String, CompletableFuture<Frame>> futures = new LinkedHashMap<>();
+        for (Rendition rendition : active) {
+            if (rendition.getSubsampling() == 1) {
+                futures.put(rendition.getName(), CompletableFuture.completedFuture(frame.retain()));
+                continue;
+            }
+            futures.put(rendition.getName(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    byte[] data = JpegEncoder.encode(frame.image(rendition.getSubsampling()), rendition.getQuality());
+                    Frame output = Frame.wrap(data);
+                    output.setSequence(frame.getSequence());
+                    output.setTimestamp(frame.getTimestamp());
+                    output.setNanoTime(frame.getNanoTime());
+                    return output;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, pool).exceptionally(e -> {
+                log.error("生成规格失败 rendition: {}, frame: {}", rendition.getName(), frame, e);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).handle((v, e) -> {
+            frame.release();
+            Map<String, Frame> frames = new LinkedHashMap<>();
+            futures.forEach((name, future) -> {
+                Frame output = future.join();
+                if (output != null) {
+                    frames.put(name, output);
+                }
+            });
+            return frames;
+        });
+    }
+
+    private void publish(Map<String, Frame> frames) {
+        try {
+            for (Map.Entry<String, Frame> entry : frames.entrySet()) {
+                Frame frame = entry.getValue();
+                try {
+                    if (!closed) {
+                        // 订阅者可能在onFrame返回前收到帧，先计数
+                        rendered.incrementAndGet();
+                        hubs.get(entry.getKey()).onFrame(frame);
+                    }
+                } catch (Exception e) {
+                    log.error("发布规格失败 rendition: {}", entry.getKey(), e);
+                } finally {
+                    frame.release();
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void onUnchanged(long suppressed) {
+        for (FrameHub hub : hubs.values()) {
+            hub.onUnchanged(suppressed);
+        }
+    }
+
+    /**
+     * 规格
+     * @return 规格
+     */
+    public List<Rendition> getRenditions() {
+        return Collections.unmodifiableList(new ArrayList<>(renditions.values()));
+    }
+
+    /**
+     * 已发布的帧数，每个规格每帧计一次
+     * @return 帧数
+     */
+    public long getRenderedFrames() {
+        return rendered.get();
+    }
+
+    /**
+     * 因处理不及时丢弃的帧数
+     * @return 帧数
+     */
+    public long getSkippedFrames() {
+        return skipped.get();
+    }
+
+    /**
+     * 关闭，取消所有订阅
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (FrameHub hub : hubs.values()) {
+            hub.close();
+        }
+    }
+}
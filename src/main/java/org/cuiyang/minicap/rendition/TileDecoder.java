@@ -0,0 +1,85 @@
+package org.cuiyang.minicap.rendition;
+
+import org.cuiyang.minicap.frame.Frame;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分块差量解码，{@link TileEncoder}输出的参考实现
+ * <p>
+ * 维护一幅画面，关键帧替换整幅画面，差量帧把变化的块绘制到画面上。
+ * 差量帧的基准不是上一帧时抛出{@link IllegalStateException}，此时需要请求关键帧。
+ * 非线程安全。
+ *
+ * @author cuiyang
+ */
+public class TileDecoder {
+
+    /** 当前画面 */
+    private BufferedImage image;
+    /** 上一次应用的序号 */
+    private long sequence = -1;
+
+    /**
+     * 解码缓冲区中position到limit之间的数据并应用到画面
+     * @param data {@link TileUpdate}数据
+     * @return 当前画面，之后的更新会修改它
+     * @throws IOException 块解码失败
+     * @throws IllegalStateException 缺少基准帧
+     */
+    public BufferedImage decode(ByteBuffer data) throws IOException {
+        return apply(TileUpdate.parse(data));
+    }
+
+    /**
+     * 应用到画面
+     * @param update 分块更新
+     * @return 当前画面，之后的更新会修改它
+     * @throws IOException 块解码失败
+     * @throws IllegalStateException 缺少基准帧
+     */
+    public BufferedImage apply(TileUpdate update) throws IOException {
+        if (update.isKeyframe()) {
+            if (image == null || image.getWidth() != update.getWidth() || image.getHeight() != update.getHeight()) {
+                image = new BufferedImage(update.getWidth(), update.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+            }
+        } else if (image == null || update.getBase() != sequence) {
+            throw new IllegalStateException("缺少基准帧 base: " + update.getBase() + ", sequence: " + sequence);
+        }
+        // 先解码全部块，失败时不修改画面
+        BufferedImage[] tiles = new BufferedImage[update.getTiles().size()];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = Frame.wrap(update.getTiles().get(i).getData()).image();
+        }
+        Graphics2D graphics = image.createGraphics();
+        try {
+            for (int i = 0; i < tiles.length; i++) {
+                TileUpdate.Tile tile = update.getTiles().get(i);
+                graphics.drawImage(tiles[i], tile.getX(), tile.getY(), null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        sequence = update.getSequence();
+        return image;
+    }
+
+    /**
+     * 当前画面
+     * @return 画面，没有收到关键帧时为null
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * 上一次应用的序号
+     * @return 序号，没有应用过时为-1
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,410 @@
+package org.cuiyang.minicap.rendition;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.hub.Subscription;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分块差量编码
+ * <p>
+ * 解码每一帧并按块与上一帧比较，只把变化的块重新编码为JPEG，输出{@link TileUpdate}。
+ * 同一行相邻的变化块合并为一个矩形编码。首帧、分辨率变化、到达关键帧间隔、变化的块超过一半
+ * 或调用{@link #requestKeyframe()}时输出关键帧，关键帧直接使用原始JPEG，不重新编码。
+ * 块的比较和编码在{@link ForkJoinPool}中并行，上一帧的像素保存在复用的缓冲区中。
+ * <p>
+ * 比较的是解码后的像素，块大小为16的倍数时与JPEG的MCU对齐，未变化的区域解码结果一致。
+ * 差量帧依赖上一帧，订阅应使用{@link DeliveryPolicy#BLOCK}，丢帧后接收端需要等待关键帧。
+ * {@link #onFrame(Frame)}只能在一个线程中调用。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class TileEncoder implements FrameListener, Closeable {
+
+    /** 默认的块大小 */
+    public static final int DEFAULT_TILE_SIZE = 64;
+    /** 默认的编码质量 */
+    public static final int DEFAULT_QUALITY = 80;
+
+    /** 每像素字节数，BGR */
+    private static final int PIXEL_SIZE = 3;
+
+    private final int tileSize;
+    private final ForkJoinPool pool;
+    private final FrameHub hub = new FrameHub();
+    private int quality = DEFAULT_QUALITY;
+    /** 关键帧间隔(纳秒) */
+    private long keyframeNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /** 上一帧的像素，BGR */
+    private byte[] previous;
+    /** 像素格式不是BGR时转换用的图像 */
+    private BufferedImage scratch;
+    /** 块是否变化，按行排列 */
+    private boolean[] dirty;
+    private int width;
+    private int height;
+    /** 上一次输出的序号 */
+    private long lastSequence = -1;
+    /** 上一次输出关键帧的时间 */
+    private long lastKeyframe;
+    private volatile boolean keyframeRequested = true;
+    private volatile boolean closed = false;
+
+    /** 关键帧数 */
+    private final AtomicLong keyframes = new AtomicLong();
+    /** 差量帧数 */
+    private final AtomicLong deltas = new AtomicLong();
+    /** 画面未变化的帧数 */
+    private final AtomicLong unchanged = new AtomicLong();
+    /** 输入字节数 */
+    private final AtomicLong inputBytes = new AtomicLong();
+    /** 输出字节数 */
+    private final AtomicLong outputBytes = new AtomicLong();
+
+    public TileEncoder() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    public TileEncoder(int tileSize) {
+        this(tileSize, RenditionPipeline.DEFAULT_POOL);
+    }
+
+    public TileEncoder(int tileSize, ForkJoinPool pool) {
+        if (tileSize <= 0 || tileSize % 16 != 0) {
+            throw new IllegalArgumentException("块大小必须是16的倍数: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        this.pool = pool;
+    }
+
+    /**
+     * 设置变化块的编码质量，默认为80
+     * @param quality 质量 0-100
+     */
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * 设置关键帧间隔，默认为10秒
+     * @param interval 间隔
+     * @param unit 时间单位
+     */
+    public void setKeyframeInterval(long interval, TimeUnit unit) {
+        this.keyframeNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * 下一帧输出关键帧，可在任意线程中调用
+     */
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    /**
+     * 订阅，下一帧输出关键帧
+     * @param listener 监听，帧内容为{@link TileUpdate}
+     * @param policy 投递策略
+     * @return 订阅
+     */
+    public Subscription subscribe(FrameListener listener, DeliveryPolicy policy) {
+        Subscription subscription = hub.subscribe(listener, policy);
+        requestKeyframe();
+        return subscription;
+    }
+
+    /**
+     * 输出的帧广播
+     * @return 帧广播
+     */
+    public FrameHub getHub() {
+        return hub;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        if (closed) {
+            return;
+        }
+        if (!hub.hasSubscribers()) {
+            // 恢复订阅后的第一帧必须是关键帧
+            keyframeRequested = true;
+            return;
+        }
+        TileUpdate update;
+        try {
+            update = encode(frame);
+        } catch (IOException e) {
+            log.error("分块编码失败 frame: {}", frame, e);
+            keyframeRequested = true;
+            return;
+        }
+        inputBytes.addAndGet(frame.length());
+        if (update == null) {
+            unchanged.incrementAndGet();
+            return;
+        }
+        byte[] data = update.toByteArray();
+        outputBytes.addAndGet(data.length);
+        (update.isKeyframe() ? keyframes : deltas).incrementAndGet();
+        lastSequence = update.getSequence();
+        Frame output = Frame.wrap(data);
+        output.setSequence(frame.getSequence());
+        output.setTimestamp(frame.getTimestamp());
+        output.setNanoTime(frame.getNanoTime());
+        try {
+            hub.onFrame(output);
+        } finally {
+            output.release();
+        }
+    }
+
+    /**
+     * 编码一帧
+     * @return 分块更新，画面未变化时返回null
+     */
+    private TileUpdate encode(Frame frame) throws IOException {
+        BufferedImage image = frame.image();
+        long now = System.nanoTime();
+        boolean resized = image.getWidth() != width || image.getHeight() != height;
+        if (resized) {
+            width = image.getWidth();
+            height = image.getHeight();
+            previous = new byte[width * height * PIXEL_SIZE];
+            scratch = null;
+            dirty = new boolean[columns() * rows()];
+        }
+        BufferedImage source = bgr(image);
+        byte[] pixels = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+        if (resized || keyframeRequested || now - lastKeyframe >= keyframeNanos) {
+            return keyframe(frame, pixels, now);
+        }
+
+        int rows = rows();
+        int columns = columns();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[rows];
+        for (int row = 0; row < rows; row++) {
+            int r = row;
+            futures[row] = CompletableFuture.runAsync(() -> compareRow(pixels, r), pool);
+        }
+        CompletableFuture.allOf(futures).join();
+
+        int count = 0;
+        List<Rectangle> regions = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (!dirty[row * columns + column]) {
+                    continue;
+                }
+                int start = column;
+                while (column + 1 < columns && dirty[row * columns + column + 1]) {
+                    column++;
+                }
+                count += column - start + 1;
+                int x = start * tileSize;
+                int y = row * tileSize;
+                regions.add(new Rectangle(x, y, Math.min((column + 1) * tileSize, width) - x,
+                        Math.min(y + tileSize, height) - y));
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (count * 2 > rows * columns) {
+            // 上一帧的像素已在比较时更新
+            return keyframe(frame, null, now);
+        }
+
+        List<CompletableFuture<TileUpdate.Tile>> tiles = new ArrayList<>(regions.size());
+        for (Rectangle region : regions) {
+            tiles.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    BufferedImage tile = source.getSubimage(region.x, region.y, region.width, region.height);
+                    return new TileUpdate.Tile(region.x, region.y, region.width, region.height,
+                            JpegEncoder.encode(tile, quality));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, pool));
+        }
+        TileUpdate update = update(frame);
+        update.setBase(lastSequence);
+        try {
+            for (CompletableFuture<TileUpdate.Tile> tile : tiles) {
+                update.getTiles().add(tile.join());
+            }
+        } catch (RuntimeException e) {
+            // 上一帧的像素已更新，接收端的画面无法与之对应
+            keyframeRequested = true;
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw e;
+        }
+        return update;
+    }
+
+    /**
+     * 关键帧，使用原始JPEG
+     * @param pixels 当前帧的像素，为null时上一帧的像素已是最新
+     */
+    private TileUpdate keyframe(Frame frame, byte[] pixels, long now) {
+        if (pixels != null) {
+            System.arraycopy(pixels, 0, previous, 0, previous.length);
+        }
+        keyframeRequested = false;
+        lastKeyframe = now;
+        TileUpdate update = update(frame);
+        update.setKeyframe(true);
+        update.getTiles().add(new TileUpdate.Tile(0, 0, width, height, frame.toByteArray()));
+        return update;
+    }
+
+    private TileUpdate update(Frame frame) {
+        TileUpdate update = new TileUpdate();
+        update.setSequence(frame.getSequence());
+        update.setTimestamp(frame.getTimestamp());
+        update.setWidth(width);
+        update.setHeight(height);
+        return update;
+    }
+
+    /**
+     * 比较一行块，变化的块拷贝到上一帧的像素中。不同行的块互不重叠，可以并行
+     */
+    private void compareRow(byte[] pixels, int row) {
+        int columns = columns();
+        int stride = width * PIXEL_SIZE;
+        int top = row * tileSize;
+        int bottom = Math.min(top + tileSize, height);
+        for (int column = 0; column < columns; column++) {
+            int left = column * tileSize * PIXEL_SIZE;
+            int length = Math.min(tileSize * PIXEL_SIZE, stride - left);
+            boolean changed = false;
+            for (int y = top; y < bottom; y++) {
+                int offset = y * stride + left;
+                // 找到第一处不同之前的行都相同，不需要拷贝
+                if (!changed) {
+                    changed = !equals(pixels, previous, offset, length);
+                }
+                if (changed) {
+                    System.arraycopy(pixels, offset, previous, offset, length);
+                }
+            }
+            dirty[row * columns + column] = changed;
+        }
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 转换为行间无填充的BGR图像，已是该格式时直接返回
+     */
+    private BufferedImage bgr(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_3BYTE_BGR && raster.getParent() == null
+                && ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() == width * PIXEL_SIZE) {
+            return image;
+        }
+        if (scratch == null) {
+            scratch = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        Graphics2D graphics = scratch.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scratch;
+    }
+
+    private int columns() {
+        return (width + tileSize - 1) / tileSize;
+    }
+
+    private int rows() {
+        return (height + tileSize - 1) / tileSize;
+    }
+
+    @Override
+    public void onUnchanged(long suppressed) {
+        hub.onUnchanged(suppressed);
+    }
+
+    /**
+     * 关键帧数
+     * @return 帧数
+     */
+    public long getKeyframes() {
+        return keyframes.get();
+    }
+
+    /**
+     * 差量帧数
+     * @return 帧数
+     */
+    public long getDeltaFrames() {
+        return deltas.get();
+    }
+
+    /**
+     * 画面未变化、没有输出的帧数
+     * @return 帧数
+     */
+    public long getUnchangedFrames() {
+        return unchanged.get();
+    }
+
+    /**
+     * 输入的JPEG字节数
+     * @return 字节数
+     */
+    public long getInputBytes() {
+        return inputBytes.get();
+    }
+
+    /**
+     * 输出的字节数
+     * @return 字节数
+     */
+    public long getOutputBytes() {
+        return outputBytes.get();
+    }
+
+    /**
+     * 关闭，取消所有订阅
+     */
+    @Override
+    public void close() {
+        closed = true;
+        hub.close();
+    }
+}
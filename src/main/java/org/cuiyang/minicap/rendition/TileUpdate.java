@@ -0,0 +1,136 @@
+package org.cuiyang.minicap.rendition;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分块更新
+ * <p>
+ * 关键帧包含一个覆盖整幅画面的块，差量帧只包含变化的块，每个块是独立的JPEG。
+ * 差量帧基于{@link #base}对应的画面，接收端的上一帧不是base时需要等待关键帧。格式(大端)：
+ * <pre>
+ * byte  类型 0关键帧 1差量帧
+ * long  序号
+ * long  基准帧序号，关键帧为-1
+ * long  时间戳(毫秒)
+ * int   宽
+ * int   高
+ * int   块数
+ * 每个块: int x, int y, int 宽, int 高, int 长度, JPEG数据
+ * </pre>
+ *
+ * @author cuiyang
+ */
+@Data
+public class TileUpdate {
+
+    private static final byte KEYFRAME = 0;
+    private static final byte DELTA = 1;
+    private static final int HEADER_SIZE = 1 + 8 * 3 + 4 * 3;
+    private static final int TILE_HEADER_SIZE = 4 * 5;
+
+    /** 是否关键帧 */
+    private boolean keyframe;
+    /** 序号 */
+    private long sequence;
+    /** 基准帧序号，关键帧为-1 */
+    private long base = -1;
+    /** 时间戳(毫秒) */
+    private long timestamp;
+    /** 画面宽 */
+    private int width;
+    /** 画面高 */
+    private int height;
+    /** 块 */
+    private List<Tile> tiles = new ArrayList<>();
+
+    /**
+     * 序列化
+     * @return 数据
+     */
+    public byte[] toByteArray() {
+        int size = HEADER_SIZE;
+        for (Tile tile : tiles) {
+            size += TILE_HEADER_SIZE + tile.getData().length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(keyframe ? KEYFRAME : DELTA);
+        buffer.putLong(sequence);
+        buffer.putLong(base);
+        buffer.putLong(timestamp);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(tiles.size());
+        for (Tile tile : tiles) {
+            buffer.putInt(tile.getX());
+            buffer.putInt(tile.getY());
+            buffer.putInt(tile.getWidth());
+            buffer.putInt(tile.getHeight());
+            buffer.putInt(tile.getData().length);
+            buffer.put(tile.getData());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 反序列化缓冲区中position到limit之间的数据，不改变缓冲区的position
+     * @param data 数据
+     * @return 分块更新
+     * @throws IllegalArgumentException 数据无效
+     */
+    public static TileUpdate parse(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        try {
+            TileUpdate update = new TileUpdate();
+            byte type = buffer.get();
+            if (type != KEYFRAME && type != DELTA) {
+                throw new IllegalArgumentException("未知的帧类型: " + type);
+            }
+            update.setKeyframe(type == KEYFRAME);
+            update.setSequence(buffer.getLong());
+            update.setBase(buffer.getLong());
+            update.setTimestamp(buffer.getLong());
+            update.setWidth(buffer.getInt());
+            update.setHeight(buffer.getInt());
+            int count = buffer.getInt();
+            if (count < 0 || count > buffer.remaining() / TILE_HEADER_SIZE) {
+                throw new IllegalArgumentException("块数无效: " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                int x = buffer.getInt();
+                int y = buffer.getInt();
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IllegalArgumentException("块长度无效: " + length);
+                }
+                byte[] tile = new byte[length];
+                buffer.get(tile);
+                update.getTiles().add(new Tile(x, y, width, height, tile));
+            }
+            return update;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("数据不完整", e);
+        }
+    }
+
+    /**
+     * 块
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Tile {
+        private int x;
+        private int y;
+        private int width;
+        private int height;
+        /** JPEG数据 */
+        private byte[] data;
+    }
+}
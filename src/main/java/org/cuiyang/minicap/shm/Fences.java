@@ -0,0 +1,69 @@
+package org.cuiyang.minicap.shm;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * 内存屏障，限制映射内存上普通读写的重排序
+ * <p>
+ * JDK9及以上使用VarHandle，Java 8使用Unsafe，通过反射调用以兼容Java 8。
+ *
+ * @author cuiyang
+ */
+final class Fences {
+
+    private static final MethodHandle LOAD_FENCE;
+    private static final MethodHandle STORE_FENCE;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodType type = MethodType.methodType(void.class);
+        MethodHandle load;
+        MethodHandle store;
+        try {
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            load = lookup.findStatic(varHandle, "acquireFence", type);
+            store = lookup.findStatic(varHandle, "releaseFence", type);
+        } catch (ReflectiveOperationException e) {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                load = lookup.findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+                store = lookup.findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+            } catch (ReflectiveOperationException ex) {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+        LOAD_FENCE = load;
+        STORE_FENCE = store;
+    }
+
+    private Fences() {
+    }
+
+    /**
+     * 之前的读不会与之后的读写重排序
+     */
+    static void loadFence() {
+        try {
+            LOAD_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 之前的读写不会与之后的写重排序
+     */
+    static void storeFence() {
+        try {
+            STORE_FENCE.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.cuiyang.minicap.shm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * 共享内存环形缓冲区，供其他进程读取帧
+ * <p>
+ * 帧写入内存映射文件(如 /dev/shm 下的文件)中的固定大小的槽，写满后覆盖最旧的槽。写入端从不等待读取端，
+ * 读取端各自记录读取位置，落后超过槽数时跳过被覆盖的帧。每个槽有一个seqlock，读取端读取前后比较，
+ * 不一致时说明读取期间被覆盖，丢弃该帧。读取不需要系统调用和锁。
+ * <p>
+ * 文件布局，小端序，偏移量为字节：
+ * <pre>
+ * 文件头 64字节
+ *   0  int  魔数 0x4D435352
+ *   4  int  版本 1
+ *   8  int  槽数
+ *   12 int  槽大小，包括槽头
+ *   16 long 已发布的帧数 head，第n帧(从0开始)位于第 n % 槽数 个槽
+ *   24 long 创建时间(毫秒)，写入端重新创建时递增，读取端据此从头读取
+ *   32 int  标志，第0位为写入端已关闭
+ * 槽 从64字节开始，每个槽大小相同，64字节对齐
+ *   0  long seqlock，写入第n帧时为 2n+1，写入完成后为 2n+2
+ *   8  long 序号
+ *   16 long 时间戳(毫秒)
+ *   24 int  帧长度
+ *   64 JPEG数据
+ * </pre>
+ * 写入第n帧：seqlock写为2n+1，写屏障，写入数据，写屏障，seqlock写为2n+2，写屏障，head写为n+1。<br>
+ * 读取第n帧：读head，n &lt; head时读seqlock，不等于2n+2时已被覆盖；读屏障后拷贝数据，
+ * 读屏障后再次读seqlock，与之前不同时已被覆盖。
+ * <p>
+ * 超过槽容量的帧丢弃。{@link #onFrame(Frame)}只能在一个线程中调用。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class SharedMemoryRing implements FrameListener, Closeable {
+
+    static final int MAGIC = 0x4D435352;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 64;
+    static final int FLAG_CLOSED = 1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int SLOT_COUNT_OFFSET = 8;
+    static final int SLOT_SIZE_OFFSET = 12;
+    static final int HEAD_OFFSET = 16;
+    static final int EPOCH_OFFSET = 24;
+    static final int FLAGS_OFFSET = 32;
+
+    static final int LOCK_OFFSET = 0;
+    static final int SEQUENCE_OFFSET = 8;
+    static final int TIMESTAMP_OFFSET = 16;
+    static final int LENGTH_OFFSET = 24;
+
+    /** 默认的槽数 */
+    public static final int DEFAULT_SLOT_COUNT = 8;
+    /** 默认的最大帧长度 */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotSize;
+    /** 已发布的帧数 */
+    private long head;
+    private volatile boolean closed = false;
+
+    /** 写入的帧数 */
+    private volatile long written;
+    /** 超过槽容量而丢弃的帧数 */
+    private volatile long oversized;
+
+    public SharedMemoryRing(File file) throws IOException {
+        this(file, DEFAULT_SLOT_COUNT, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * 创建，文件已存在且大小一致时原地重置，否则重新创建
+     * @param file 文件
+     * @param slotCount 槽数
+     * @param maxFrameSize 最大帧长度
+     * @throws IOException 创建失败
+     */
+    public SharedMemoryRing(File file, int slotCount, int maxFrameSize) throws IOException {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("槽数必须大于0");
+        }
+        if (maxFrameSize < 1) {
+            throw new IllegalArgumentException("最大帧长度必须大于0");
+        }
+        long slotSize = align(SLOT_HEADER_SIZE + (long) maxFrameSize);
+        long size = HEADER_SIZE + slotSize * slotCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("文件超过2GB: " + size);
+        }
+        this.file = file;
+        this.slotCount = slotCount;
+        this.slotSize = (int) slotSize;
+        // 大小变化时重新创建，已映射旧文件的读取端不会访问到文件末尾之外
+        if (file.exists() && file.length() != size) {
+            Files.delete(file.toPath());
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        channel = raf.getChannel();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        init();
+    }
+
+    /**
+     * 初始化文件头和槽，魔数最后写入，读取端不会看到初始化中的文件
+     */
+    private void init() {
+        buffer.putInt(MAGIC_OFFSET, 0);
+        Fences.storeFence();
+        buffer.putLong(HEAD_OFFSET, 0);
+        for (int i = 0; i < slotCount; i++) {
+            buffer.putLong(slotOffset(i) + LOCK_OFFSET, 0);
+        }
+        Fences.storeFence();
+        // 读取端看到新的创建时间时，head和seqlock已重置
+        buffer.putLong(EPOCH_OFFSET, Math.max(buffer.getLong(EPOCH_OFFSET) + 1, System.currentTimeMillis()));
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+        buffer.putInt(SLOT_SIZE_OFFSET, slotSize);
+        buffer.putInt(FLAGS_OFFSET, 0);
+        Fences.storeFence();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        if (closed) {
+            return;
+        }
+        int length = frame.length();
+        if (length > slotSize - SLOT_HEADER_SIZE) {
+            if (oversized++ == 0) {
+                log.warn("帧超过共享内存槽容量，丢弃 length: {}, capacity: {}", length, slotSize - SLOT_HEADER_SIZE);
+            }
+            return;
+        }
+        long n = head;
+        int slot = slotOffset((int) (n % slotCount));
+        buffer.putLong(slot + LOCK_OFFSET, 2 * n + 1);
+        Fences.storeFence();
+        buffer.putLong(slot + SEQUENCE_OFFSET, frame.getSequence());
+        buffer.putLong(slot + TIMESTAMP_OFFSET, frame.getTimestamp());
+        buffer.putInt(slot + LENGTH_OFFSET, length);
+        ByteBuffer data = buffer.duplicate();
+        data.position(slot + SLOT_HEADER_SIZE);
+        data.put(frame.buffer());
+        Fences.storeFence();
+        buffer.putLong(slot + LOCK_OFFSET, 2 * n + 2);
+        Fences.storeFence();
+        head = n + 1;
+        buffer.putLong(HEAD_OFFSET, head);
+        written++;
+    }
+
+    private int slotOffset(int index) {
+        return HEADER_SIZE + index * slotSize;
+    }
+
+    private static long align(long size) {
+        return (size + 63) & ~63L;
+    }
+
+    /**
+     * 文件
+     * @return 文件
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * 最大帧长度
+     * @return 字节数
+     */
+    public int getMaxFrameSize() {
+        return slotSize - SLOT_HEADER_SIZE;
+    }
+
+    /**
+     * 写入的帧数
+     * @return 帧数
+     */
+    public long getWrittenFrames() {
+        return written;
+    }
+
+    /**
+     * 超过槽容量而丢弃的帧数
+     * @return 帧数
+     */
+    public long getOversizedFrames() {
+        return oversized;
+    }
+
+    /**
+     * 关闭，设置关闭标志，文件保留供读取端读完
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Fences.storeFence();
+        buffer.putInt(FLAGS_OFFSET, buffer.getInt(FLAGS_OFFSET) | FLAG_CLOSED);
+        channel.close();
+    }
+}
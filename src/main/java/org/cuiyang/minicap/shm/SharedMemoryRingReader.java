@@ -0,0 +1,187 @@
+package org.cuiyang.minicap.shm;
+
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.cuiyang.minicap.shm.SharedMemoryRing.EPOCH_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.FLAGS_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.FLAG_CLOSED;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.HEADER_SIZE;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.HEAD_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.LENGTH_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.LOCK_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.MAGIC;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.MAGIC_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.SEQUENCE_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.SLOT_COUNT_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.SLOT_HEADER_SIZE;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.SLOT_SIZE_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.TIMESTAMP_OFFSET;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.VERSION;
+import static org.cuiyang.minicap.shm.SharedMemoryRing.VERSION_OFFSET;
+
+/**
+ * 共享内存环形缓冲区的读取端，{@link SharedMemoryRing}协议的参考实现
+ * <p>
+ * 只读映射文件，不影响写入端和其他读取端。每个实例一个读取位置，非线程安全。
+ *
+ * @author cuiyang
+ */
+public class SharedMemoryRingReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int slotSize;
+    /** 写入端的创建时间，变化时从头读取 */
+    private long epoch;
+    /** 下一帧的位置 */
+    private long next;
+    /** 因落后被覆盖而跳过的帧数 */
+    private long lagged;
+
+    private SharedMemoryRingReader(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+        this.slotSize = buffer.getInt(SLOT_SIZE_OFFSET);
+        this.epoch = buffer.getLong(EPOCH_OFFSET);
+        if (slotCount < 1 || slotSize < SLOT_HEADER_SIZE
+                || HEADER_SIZE + (long) slotCount * slotSize > buffer.capacity()) {
+            throw new IllegalArgumentException("文件头无效 slotCount: " + slotCount + ", slotSize: " + slotSize);
+        }
+    }
+
+    /**
+     * 打开，从最新的帧开始读取
+     * @param file 文件
+     * @return 读取端
+     * @throws IOException 打开失败
+     * @throws IllegalArgumentException 不是共享内存环形缓冲区或写入端未初始化完成
+     */
+    public static SharedMemoryRingReader open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalArgumentException("文件过小: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                throw new IllegalArgumentException("魔数不匹配: " + file);
+            }
+            Fences.loadFence();
+            if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IllegalArgumentException("不支持的版本: " + buffer.getInt(VERSION_OFFSET));
+            }
+            SharedMemoryRingReader reader = new SharedMemoryRingReader(channel, buffer);
+            reader.next = Math.max(0, reader.getHead() - 1);
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取下一帧，落后超过槽数时跳到最旧的未覆盖的帧
+     * @return 帧，数据为拷贝，没有新的帧时返回null
+     */
+    public Frame poll() {
+        for (;;) {
+            long epoch = buffer.getLong(EPOCH_OFFSET);
+            Fences.loadFence();
+            if (epoch != this.epoch) {
+                // 写入端重新创建
+                this.epoch = epoch;
+                next = 0;
+            }
+            long head = getHead();
+            if (next >= head) {
+                return null;
+            }
+            if (head - next > slotCount) {
+                lagged += head - slotCount - next;
+                next = head - slotCount;
+            }
+            long n = next++;
+            int slot = HEADER_SIZE + (int) (n % slotCount) * slotSize;
+            long lock = buffer.getLong(slot + LOCK_OFFSET);
+            Fences.loadFence();
+            if (lock != 2 * n + 2) {
+                lagged++;
+                continue;
+            }
+            long sequence = buffer.getLong(slot + SEQUENCE_OFFSET);
+            long timestamp = buffer.getLong(slot + TIMESTAMP_OFFSET);
+            int length = buffer.getInt(slot + LENGTH_OFFSET);
+            byte[] data = null;
+            if (length >= 0 && length <= slotSize - SLOT_HEADER_SIZE) {
+                data = new byte[length];
+                ByteBuffer view = buffer.duplicate();
+                view.position(slot + SLOT_HEADER_SIZE);
+                view.get(data);
+            }
+            Fences.loadFence();
+            if (buffer.getLong(slot + LOCK_OFFSET) != lock || data == null) {
+                // 读取期间被覆盖
+                lagged++;
+                continue;
+            }
+            Frame frame = Frame.wrap(data);
+            frame.setSequence(sequence);
+            frame.setTimestamp(timestamp);
+            return frame;
+        }
+    }
+
+    /**
+     * 跳到最新的帧，之前未读取的帧不计为落后
+     */
+    public void seekToLatest() {
+        next = Math.max(0, getHead() - 1);
+    }
+
+    /**
+     * 写入端已发布的帧数
+     * @return 帧数
+     */
+    public long getHead() {
+        long head = buffer.getLong(HEAD_OFFSET);
+        Fences.loadFence();
+        return head;
+    }
+
+    /**
+     * 因落后被覆盖而跳过的帧数
+     * @return 帧数
+     */
+    public long getLagged() {
+        return lagged;
+    }
+
+    /**
+     * 写入端是否已关闭
+     * @return true 已关闭
+     */
+    public boolean isWriterClosed() {
+        return (buffer.getInt(FLAGS_OFFSET) & FLAG_CLOSED) != 0;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
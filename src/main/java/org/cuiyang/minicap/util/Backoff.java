@@ -0,0 +1,41 @@
+package org.cuiyang.minicap.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指数退避，每次重试的间隔翻倍直到上限，成功后重置。非线程安全
+ *
+ * @author cuiyang
+ */
+public class Backoff {
+
+    /** 初始间隔(毫秒) */
+    private final long initialMillis;
+    /** 最大间隔(毫秒) */
+    private final long maxMillis;
+    /** 下次的间隔(毫秒) */
+    private long nextMillis;
+
+    public Backoff(long initial, long max, TimeUnit unit) {
+        this.initialMillis = Math.max(1, unit.toMillis(initial));
+        this.maxMillis = Math.max(initialMillis, unit.toMillis(max));
+        this.nextMillis = initialMillis;
+    }
+
+    /**
+     * 获取下次重试的间隔并翻倍
+     * @return 间隔(毫秒)
+     */
+    public long next() {
+        long delay = nextMillis;
+        nextMillis = Math.min(maxMillis, nextMillis * 2);
+        return delay;
+    }
+
+    /**
+     * 重置为初始间隔
+     */
+    public void reset() {
+        nextMillis = initialMillis;
+    }
+}
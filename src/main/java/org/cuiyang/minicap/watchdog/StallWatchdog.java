@@ -0,0 +1,215 @@
+package org.cuiyang.minicap.watchdog;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cuiyang.minicap.ScreenProjection;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 画面卡顿检测
+ * <p>
+ * 定时检查距最近一帧的间隔，超过阈值时判定为卡顿并逐级恢复：重连、重启Minicap服务、重新部署。
+ * 每一级执行后等待一个阈值，仍未收到帧时升级；到达最高级后按指数退避重复，最长间隔为1分钟。
+ * 卡顿时长和恢复耗时记录在{@link FrameMetrics}中。
+ * minicap只在画面变化时输出帧，阈值应大于正常的静止时长；收到第一帧之前不检测。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class StallWatchdog implements Runnable, Closeable {
+
+    /**
+     * 恢复操作，按顺序升级
+     */
+    public enum Action {
+        /** 断开连接后重连 */
+        RECONNECT,
+        /** 重启Minicap服务 */
+        RESTART,
+        /** 重新获取设备信息、推送minicap后重启 */
+        REDEPLOY
+    }
+
+    private final Supplier<FrameMetrics> metrics;
+    private final Consumer<Action> recovery;
+
+    /** 卡顿阈值 */
+    private long thresholdNanos = TimeUnit.SECONDS.toNanos(5);
+    /** 最高的恢复操作 */
+    private Action maxAction = Action.REDEPLOY;
+    /** 到达最高级后重复的最长间隔 */
+    private long maxRetryNanos = TimeUnit.MINUTES.toNanos(1);
+
+    /** 是否处于卡顿中 */
+    private boolean stalled;
+    /** 卡顿前最后一帧的时间 */
+    private long stallStart;
+    /** 检测到卡顿的时间 */
+    private long detectedAt;
+    /** 上次恢复操作的时间 */
+    private long lastActionAt;
+    /** 已执行的恢复操作数 */
+    private int level;
+    /** 到达最高级后重复的间隔 */
+    private long retryNanos;
+    /** 各恢复操作的执行次数 */
+    private final long[] actions = new long[Action.values().length];
+
+    private ScheduledExecutorService ownExecutor;
+    private ScheduledFuture<?> future;
+
+    public StallWatchdog(ScreenProjection projection) {
+        this(projection::getMetrics, action -> {
+            switch (action) {
+                case RECONNECT:
+                    projection.reconnect();
+                    break;
+                case RESTART:
+                    projection.restart();
+                    break;
+                default:
+                    projection.redeploy();
+                    break;
+            }
+        });
+    }
+
+    StallWatchdog(Supplier<FrameMetrics> metrics, Consumer<Action> recovery) {
+        this.metrics = metrics;
+        this.recovery = recovery;
+    }
+
+    /**
+     * 设置卡顿阈值，默认为5秒
+     * @param threshold 阈值
+     * @param unit 时间单位
+     */
+    public synchronized void setThreshold(long threshold, TimeUnit unit) {
+        this.thresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * 设置最高的恢复操作，默认为重新部署
+     * @param maxAction 恢复操作
+     */
+    public synchronized void setMaxAction(Action maxAction) {
+        this.maxAction = maxAction;
+    }
+
+    /**
+     * 启动，使用单独的线程定时检查
+     */
+    public synchronized void start() {
+        ownExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("stall-watchdog-%d").setDaemon(true).build());
+        start(ownExecutor);
+    }
+
+    /**
+     * 在指定的线程池中定时检查，间隔为阈值的1/4
+     * @param executor 线程池
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (future != null) {
+            throw new IllegalStateException("卡顿检测已运行");
+        }
+        long interval = Math.max(TimeUnit.MILLISECONDS.toNanos(10), thresholdNanos / 4);
+        future = executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+            ownExecutor = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            check(metrics.get().getLastFrameNanos(), System.nanoTime());
+        } catch (Exception e) {
+            log.error("卡顿检测运行错误", e);
+        }
+    }
+
+    /**
+     * 检查一次
+     * @param lastFrame 最近一帧的时间(System.nanoTime)，0表示还没有收到
+     * @param now 当前时间(System.nanoTime)
+     */
+    synchronized void check(long lastFrame, long now) {
+        if (lastFrame == 0) {
+            return;
+        }
+        if (stalled) {
+            if (lastFrame - detectedAt > 0) {
+                stalled = false;
+                metrics.get().stallRecovered(lastFrame - stallStart, lastFrame - detectedAt);
+                log.info("画面已恢复，卡顿 {}ms，恢复耗时 {}ms", TimeUnit.NANOSECONDS.toMillis(lastFrame - stallStart),
+                        TimeUnit.NANOSECONDS.toMillis(lastFrame - detectedAt));
+                return;
+            }
+            long wait = level <= maxAction.ordinal() ? thresholdNanos : retryNanos;
+            if (now - lastActionAt >= wait) {
+                escalate(now);
+            }
+            return;
+        }
+        if (now - lastFrame >= thresholdNanos) {
+            stalled = true;
+            stallStart = lastFrame;
+            detectedAt = now;
+            level = 0;
+            retryNanos = thresholdNanos;
+            metrics.get().stallDetected();
+            escalate(now);
+        }
+    }
+
+    private void escalate(long now) {
+        if (level > maxAction.ordinal()) {
+            retryNanos = Math.min(retryNanos * 2, Math.max(maxRetryNanos, thresholdNanos));
+        }
+        Action action = Action.values()[Math.min(level, maxAction.ordinal())];
+        level++;
+        lastActionAt = now;
+        actions[action.ordinal()]++;
+        log.warn("画面卡顿 {}ms，执行恢复: {}", TimeUnit.NANOSECONDS.toMillis(now - stallStart), action);
+        try {
+            recovery.accept(action);
+        } catch (Exception e) {
+            log.error("卡顿恢复失败 action: {}", action, e);
+        }
+    }
+
+    /**
+     * 是否处于卡顿中
+     * @return true 卡顿中
+     */
+    public synchronized boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * 恢复操作的执行次数
+     * @param action 恢复操作
+     * @return 次数
+     */
+    public synchronized long getActions(Action action) {
+        return actions[action.ordinal()];
+    }
+}
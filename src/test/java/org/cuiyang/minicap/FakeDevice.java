@@ -0,0 +1,96 @@
+package org.cuiyang.minicap;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 模拟的设备，通过动态代理实现{@link IDevice}，记录执行的shell命令和推送的文件，不需要连接设备
+ *
+ * @author cuiyang
+ */
+public class FakeDevice {
+
+    private final String serial;
+    /** shell命令 -> 输出 */
+    private volatile Function<String, String> shell = command -> "";
+    private final Map<String, String> properties = new HashMap<>();
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+    private final List<String> pushes = new CopyOnWriteArrayList<>();
+
+    public FakeDevice(String serial) {
+        this.serial = serial;
+    }
+
+    public void setShell(Function<String, String> shell) {
+        this.shell = shell;
+    }
+
+    public void setProperty(String name, String value) {
+        properties.put(name, value);
+    }
+
+    /**
+     * 执行过的shell命令
+     * @return shell命令
+     */
+    public List<String> getCommands() {
+        return commands;
+    }
+
+    /**
+     * 推送过的远程路径
+     * @return 远程路径
+     */
+    public List<String> getPushes() {
+        return pushes;
+    }
+
+    /**
+     * 创建代理，未模拟的方法返回默认值
+     * @return IDevice
+     */
+    public IDevice device() {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(), new Class[]{IDevice.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getSerialNumber":
+                            return serial;
+                        case "getProperty":
+                            return properties.get((String) args[0]);
+                        case "executeShellCommand":
+                            String command = (String) args[0];
+                            commands.add(command);
+                            byte[] output = shell.apply(command).getBytes(StandardCharsets.UTF_8);
+                            IShellOutputReceiver receiver = (IShellOutputReceiver) args[1];
+                            receiver.addOutput(output, 0, output.length);
+                            receiver.flush();
+                            return null;
+                        case "pushFile":
+                            pushes.add((String) args[1]);
+                            return null;
+                        case "toString":
+                            return "FakeDevice(" + serial + ")";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            Class<?> type = method.getReturnType();
+                            if (type == boolean.class) {
+                                return false;
+                            } else if (type == int.class || type == long.class) {
+                                return type == int.class ? (Object) 0 : (Object) 0L;
+                            }
+                            return null;
+                    }
+                });
+    }
+}
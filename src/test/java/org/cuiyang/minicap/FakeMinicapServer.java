@@ -0,0 +1,247 @@
+package org.cuiyang.minicap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.cuiyang.minicap.frame.Frame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * 本地模拟的minicap服务，使用相同的协议(Banner + 长度前缀的帧)在本地TCP端口上输出帧，不需要连接设备
+ * <p>
+ * 每帧为JPEG形式的负载，SOI之后的COM段中写入魔数、序号和发送时间(System.nanoTime)，
+ * 可通过{@link #sequenceOf(Frame)}和{@link #latencyOf(Frame)}读取。
+ *
+ * @author cuiyang
+ */
+@Slf4j
+public class FakeMinicapServer extends Thread implements Closeable {
+
+    /** COM段中的魔数 */
+    private static final int MAGIC = 0x4d434150;
+    /** 负载的最小长度: SOI + COM(2 + 2 + 4 + 8 + 8) + EOI */
+    public static final int MIN_FRAME_SIZE = 2 + 24 + 2;
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    /** 挂起的连接 */
+    private final Set<Socket> hung = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+
+    /** 帧率 */
+    private volatile int fps = 30;
+    /** 帧大小分布 */
+    private volatile IntSupplier frameSize = fixed(64 * 1024);
+    /** 暂停发送直到该时间(System.nanoTime) */
+    private volatile long stallUntil = 0;
+    /** 是否运行 */
+    private volatile boolean running = true;
+
+    public FakeMinicapServer() throws IOException {
+        super("fake-minicap-server");
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        setDaemon(true);
+    }
+
+    /**
+     * 固定大小
+     * @param size 帧大小
+     * @return 帧大小分布
+     */
+    public static IntSupplier fixed(int size) {
+        return () -> size;
+    }
+
+    /**
+     * 均匀分布
+     * @param min 最小帧大小
+     * @param max 最大帧大小
+     * @return 帧大小分布
+     */
+    public static IntSupplier uniform(int min, int max) {
+        Random random = new Random(42);
+        return () -> min + random.nextInt(max - min + 1);
+    }
+
+    /**
+     * 读取帧序号
+     * @param frame 帧
+     * @return 序号，不是模拟服务输出的帧返回-1
+     */
+    public static long sequenceOf(Frame frame) {
+        ByteBuffer buffer = frame.buffer();
+        if (buffer.remaining() < MIN_FRAME_SIZE - 2 || buffer.getInt(6) != MAGIC) {
+            return -1;
+        }
+        return buffer.getLong(10);
+    }
+
+    /**
+     * 计算帧从发送到当前的延迟
+     * @param frame 帧
+     * @return 延迟(纳秒)，不是模拟服务输出的帧返回-1
+     */
+    public static long latencyOf(Frame frame) {
+        ByteBuffer buffer = frame.buffer();
+        if (buffer.remaining() < MIN_FRAME_SIZE - 2 || buffer.getInt(6) != MAGIC) {
+            return -1;
+        }
+        return System.nanoTime() - buffer.getLong(18);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void setFps(int fps) {
+        this.fps = fps;
+    }
+
+    public void setFrameSize(IntSupplier frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * 已发送的帧数
+     * @return 帧数
+     */
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    /**
+     * 当前连接数
+     * @return 连接数
+     */
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * 模拟卡顿，连接保持但不发送帧
+     * @param duration 时长
+     * @param unit 时间单位
+     */
+    public void stall(long duration, TimeUnit unit) {
+        this.stallUntil = System.nanoTime() + unit.toNanos(duration);
+    }
+
+    /**
+     * 模拟minicap挂起，已有的连接保持但不再发送帧，新的连接正常
+     */
+    public void hang() {
+        hung.addAll(clients);
+    }
+
+    /**
+     * 模拟断开，关闭所有连接
+     */
+    public void disconnect() {
+        for (Socket client : clients) {
+            IOUtils.closeQuietly(client);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                client.setTcpNoDelay(true);
+                clients.add(client);
+                Thread writer = new Thread(() -> serve(client), "fake-minicap-writer");
+                writer.setDaemon(true);
+                writer.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("模拟minicap服务接收连接失败", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        IOUtils.closeQuietly(serverSocket);
+        disconnect();
+    }
+
+    /**
+     * 向一个连接发送Banner和帧
+     */
+    private void serve(Socket client) {
+        try {
+            OutputStream out = client.getOutputStream();
+            out.write(MinicapStreamGenerator.banner(1080, 1920, 540, 960));
+            Random random = new Random();
+            byte[] header = new byte[4];
+            long next = System.nanoTime();
+            while (running && !client.isClosed()) {
+                long now = System.nanoTime();
+                if (hung.contains(client)) {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                    continue;
+                }
+                if (now < stallUntil) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(stallUntil - now, TimeUnit.MILLISECONDS.toNanos(10)));
+                    next = System.nanoTime();
+                    continue;
+                }
+                if (now < next) {
+                    TimeUnit.NANOSECONDS.sleep(next - now);
+                }
+                next += TimeUnit.SECONDS.toNanos(1) / fps;
+                int size = Math.max(frameSize.getAsInt(), MIN_FRAME_SIZE);
+                byte[] payload = payload(size, random);
+                header[0] = (byte) size;
+                header[1] = (byte) (size >> 8);
+                header[2] = (byte) (size >> 16);
+                header[3] = (byte) (size >> 24);
+                out.write(header);
+                out.write(payload);
+                out.flush();
+                sentFrames.incrementAndGet();
+            }
+        } catch (IOException | InterruptedException e) {
+            log.debug("模拟minicap服务连接断开");
+        } finally {
+            clients.remove(client);
+            hung.remove(client);
+            IOUtils.closeQuietly(client);
+        }
+    }
+
+    /**
+     * 生成负载
+     */
+    private byte[] payload(int size, Random random) {
+        byte[] payload = new byte[size];
+        random.nextBytes(payload);
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        // SOI
+        buffer.put((byte) 0xff).put((byte) 0xd8);
+        // COM
+        buffer.put((byte) 0xff).put((byte) 0xfe).putShort((short) 22);
+        buffer.putInt(MAGIC).putLong(sequence.incrementAndGet()).putLong(System.nanoTime());
+        // EOI
+        payload[size - 2] = (byte) 0xff;
+        payload[size - 1] = (byte) 0xd9;
+        return payload;
+    }
+}
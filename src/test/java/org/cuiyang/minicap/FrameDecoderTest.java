@@ -0,0 +1,80 @@
+package org.cuiyang.minicap;
+
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FrameDecoderTest
+ *
+ * @author cuiyang
+ */
+public class FrameDecoderTest {
+
+    @Test
+    public void testDecode() throws Exception {
+        byte[][] frames = {frame(10, 1), frame(0, 2), frame(300000, 3), frame(1, 4)};
+        byte[] stream = MinicapStreamGenerator.stream(frames);
+        for (int chunkSize : new int[]{1, 3, 7, 1000, 65536, stream.length}) {
+            List<byte[]> received = new ArrayList<>();
+            List<Banner> banners = new ArrayList<>();
+            FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Handler() {
+                @Override
+                public void onBanner(Banner banner) {
+                    banners.add(banner);
+                }
+
+                @Override
+                public void onFrame(Frame frame) {
+                    received.add(frame.toByteArray());
+                    frame.release();
+                }
+            });
+            ReadableByteChannel channel = MinicapStreamGenerator.channel(stream, chunkSize);
+            //noinspection StatementWithEmptyBody
+            while (decoder.read(channel) >= 0) {
+            }
+            Assert.assertEquals(1, banners.size());
+            Banner banner = banners.get(0);
+            Assert.assertEquals(1234, banner.getPid());
+            Assert.assertEquals(1080, banner.getRealWidth());
+            Assert.assertEquals(1920, banner.getRealHeight());
+            Assert.assertEquals(540, banner.getVirtualWidth());
+            Assert.assertEquals(960, banner.getVirtualHeight());
+            Assert.assertEquals(90, banner.getOrientation());
+            Assert.assertEquals(frames.length, received.size());
+            for (int i = 0; i < frames.length; i++) {
+                Assert.assertArrayEquals(frames[i], received.get(i));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testMaxFrameSize() throws Exception {
+        byte[] stream = MinicapStreamGenerator.stream(frame(1024, 1));
+        FrameDecoder decoder = new FrameDecoder(512, frame -> Assert.fail());
+        decoder.decode(ByteBuffer.wrap(stream));
+    }
+
+    @Test(expected = IOException.class)
+    public void testBannerLength() throws Exception {
+        FrameDecoder decoder = new FrameDecoder(512, frame -> Assert.fail());
+        decoder.decode(ByteBuffer.wrap(new byte[]{1, 1, 0, 0, 0, 0}));
+    }
+
+    static byte[] frame(int length, int seed) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) seed);
+        if (length > 0) {
+            frame[length - 1] = (byte) (seed + 1);
+        }
+        return frame;
+    }
+}
@@ -1,12 +1,24 @@
 package org.cuiyang.minicap;
 
 import org.apache.commons.io.IOUtils;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+import org.junit.Assert;
 import org.junit.Test;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * MinicapClientTest
@@ -26,7 +38,7 @@ public class MinicapClientTest {
         }
     }
 
-    @Test(expected = InterruptedException.class)
+    @Test(expected = IllegalStateException.class)
     public void testClose() throws Exception {
         MinicapClient minicapClient = new MinicapClient(1717);
         minicapClient.start();
@@ -40,4 +52,164 @@ public class MinicapClientTest {
         }).start();
         minicapClient.take();
     }
+
+    @Test
+    public void testFakeServer() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(60);
+            server.setFrameSize(FakeMinicapServer.uniform(300 * 1024, 800 * 1024));
+            server.start();
+            MinicapClient client = new MinicapClient("127.0.0.1", server.getPort());
+            client.setDeliveryPolicy(DeliveryPolicy.BLOCK);
+            client.start();
+            try {
+                long last = 0;
+                long maxLatency = 0;
+                for (int i = 0; i < 60; i++) {
+                    Frame frame = client.takeFrame();
+                    long sequence = FakeMinicapServer.sequenceOf(frame);
+                    Assert.assertEquals(last + 1, sequence);
+                    last = sequence;
+                    maxLatency = Math.max(maxLatency, FakeMinicapServer.latencyOf(frame));
+                    frame.release();
+                }
+                System.out.printf("60帧最大延迟: %.2fms%n", maxLatency / 1e6);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFakeServerStall() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.start();
+            MinicapClient client = new MinicapClient("127.0.0.1", server.getPort());
+            client.setDeliveryPolicy(DeliveryPolicy.CONFLATE);
+            client.start();
+            try {
+                client.takeFrame().release();
+                server.stall(500, TimeUnit.MILLISECONDS);
+                Thread.sleep(100);
+                // 取走卡顿前已发送的帧，接收线程可能仍有积压
+                long sent = server.getSentFrames();
+                long sequence;
+                do {
+                    Frame frame = client.takeFrame();
+                    sequence = FakeMinicapServer.sequenceOf(frame);
+                    frame.release();
+                } while (sequence < sent);
+                long start = System.nanoTime();
+                client.takeFrame().release();
+                Assert.assertTrue(System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(200));
+
+                // 断开后重连
+                server.disconnect();
+                Thread.sleep(1500);
+                Assert.assertEquals(1, server.getClientCount());
+                client.takeFrame().release();
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFakeServerFastReconnect() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(100);
+            server.start();
+            MinicapClient client = new MinicapClient("127.0.0.1", server.getPort());
+            client.setDeliveryPolicy(DeliveryPolicy.CONFLATE);
+            client.start();
+            try {
+                Assert.assertTrue(client.awaitFrame(1, TimeUnit.SECONDS));
+                client.takeFrame().release();
+                server.disconnect();
+                Thread.sleep(20);
+                // 丢弃断开前收到的帧
+                client.takeFrame().release();
+                long start = System.nanoTime();
+                client.takeFrame().release();
+                long elapsed = System.nanoTime() - start;
+                Assert.assertTrue("重连耗时 " + elapsed / 1e6 + "ms", elapsed < TimeUnit.MILLISECONDS.toNanos(500));
+                Assert.assertEquals(1, client.getMetrics().getReconnects());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFakeServerClosePartialFrame() throws Exception {
+        FramePool pool = new FramePool(false);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            MinicapClient client = new MinicapClient("127.0.0.1", serverSocket.getLocalPort());
+            client.setFramePool(pool);
+            client.start();
+            try (Socket socket = serverSocket.accept()) {
+                // 只发送帧的一部分
+                OutputStream out = socket.getOutputStream();
+                out.write(MinicapStreamGenerator.banner(1080, 1920, 540, 960));
+                out.write(new byte[]{0, 0, 16, 0});
+                out.write(new byte[1024]);
+                out.flush();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (pool.getStats().getOutstanding() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(1, pool.getStats().getOutstanding());
+
+                client.close();
+                client.join(5000);
+                Assert.assertEquals(0, pool.getStats().getOutstanding());
+            }
+        }
+    }
+
+    @Test
+    public void testFakeServerPoll() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(100);
+            server.start();
+            MinicapClient client = new MinicapClient("127.0.0.1", server.getPort());
+            client.setDeliveryPolicy(DeliveryPolicy.DROP_OLDEST);
+            client.start();
+            Assert.assertTrue(client.awaitFrame(1, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            List<Frame> frames = new ArrayList<>();
+            Assert.assertTrue(client.drainTo(frames, 100) > 0);
+            long last = 0;
+            for (Frame frame : frames) {
+                long sequence = FakeMinicapServer.sequenceOf(frame);
+                Assert.assertTrue(sequence > last);
+                last = sequence;
+                frame.release();
+            }
+            Frame frame = client.poll(1, TimeUnit.SECONDS);
+            Assert.assertNotNull(frame);
+            frame.release();
+
+            // 关闭时唤醒所有等待的消费者
+            server.stall(2000, TimeUnit.MILLISECONDS);
+            Thread.sleep(50);
+            while ((frame = client.tryTake()) != null) {
+                frame.release();
+            }
+            CountDownLatch closed = new CountDownLatch(2);
+            for (int i = 0; i < 2; i++) {
+                new Thread(() -> {
+                    try {
+                        client.takeFrame().release();
+                    } catch (IllegalStateException e) {
+                        closed.countDown();
+                    } catch (InterruptedException ignore) {
+                    }
+                }).start();
+            }
+            Thread.sleep(100);
+            client.close();
+            Assert.assertTrue(closed.await(1, TimeUnit.SECONDS));
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package org.cuiyang.minicap;
+
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MinicapEventLoopGroupTest
+ *
+ * @author cuiyang
+ */
+public class MinicapEventLoopGroupTest {
+
+    @Test
+    public void testManyConnections() throws Exception {
+        int connections = 50;
+        try (FakeMinicapServer server = new FakeMinicapServer();
+             MinicapEventLoopGroup group = new MinicapEventLoopGroup(2)) {
+            server.setFps(30);
+            server.setFrameSize(FakeMinicapServer.uniform(50 * 1024, 200 * 1024));
+            server.start();
+
+            List<AtomicInteger> counters = new ArrayList<>();
+            List<MinicapClient> clients = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                AtomicInteger counter = new AtomicInteger();
+                MinicapClient client = new MinicapClient("127.0.0.1", server.getPort()) {
+                    @Override
+                    protected void offer(Frame frame) {
+                        counter.incrementAndGet();
+                        frame.release();
+                    }
+                };
+                client.setEventLoopGroup(group);
+                client.start();
+                counters.add(counter);
+                clients.add(client);
+            }
+            long start = System.nanoTime();
+            Thread.sleep(2000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int min = Integer.MAX_VALUE;
+            for (AtomicInteger counter : counters) {
+                min = Math.min(min, counter.get());
+            }
+            System.out.printf("%s个连接, 最低fps: %.1f%n", connections, min / seconds);
+            Assert.assertTrue("最低帧数: " + min, min >= 40);
+
+            for (MinicapClient client : clients) {
+                client.close();
+            }
+            Thread.sleep(200);
+            Assert.assertEquals(0, server.getClientCount());
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer();
+             MinicapEventLoopGroup group = new MinicapEventLoopGroup(1)) {
+            server.start();
+            MinicapClient client = new MinicapClient("127.0.0.1", server.getPort());
+            client.setDeliveryPolicy(DeliveryPolicy.CONFLATE);
+            client.setEventLoopGroup(group);
+            client.start();
+            try {
+                client.takeFrame().release();
+                server.disconnect();
+                Thread.sleep(1500);
+                Assert.assertEquals(1, server.getClientCount());
+                client.takeFrame().release();
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCloseReleasesPartialFrame() throws Exception {
+        FramePool pool = new FramePool(false);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             MinicapEventLoopGroup group = new MinicapEventLoopGroup(1)) {
+            MinicapClient client = new MinicapClient("127.0.0.1", serverSocket.getLocalPort());
+            client.setFramePool(pool);
+            client.setEventLoopGroup(group);
+            client.start();
+            try (Socket socket = serverSocket.accept()) {
+                // 只发送帧的一部分
+                OutputStream out = socket.getOutputStream();
+                out.write(MinicapStreamGenerator.banner(1080, 1920, 540, 960));
+                out.write(new byte[]{0, 0, 16, 0});
+                out.write(new byte[1024]);
+                out.flush();
+                long deadline = System.currentTimeMillis() + 5000;
+                while (pool.getStats().getOutstanding() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(1, pool.getStats().getOutstanding());
+
+                client.close();
+                deadline = System.currentTimeMillis() + 5000;
+                while (pool.getStats().getOutstanding() != 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(0, pool.getStats().getOutstanding());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBlockPolicy() {
+        try (MinicapEventLoopGroup group = new MinicapEventLoopGroup(1)) {
+            MinicapClient client = new MinicapClient(0);
+            client.setDeliveryPolicy(DeliveryPolicy.BLOCK);
+            client.setEventLoopGroup(group);
+            client.start();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.cuiyang.minicap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+/**
+ * 生成合成的minicap数据流: Banner + 长度前缀的JPEG帧，并可按任意大小分块模拟TCP读取
+ *
+ * @author cuiyang
+ */
+public class MinicapStreamGenerator {
+
+    /** Banner长度 */
+    public static final int BANNER_LENGTH = 24;
+
+    private final Random random;
+
+    public MinicapStreamGenerator() {
+        this(42);
+    }
+
+    public MinicapStreamGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 生成Banner
+     * @param realWidth 真实宽度
+     * @param realHeight 真实高度
+     * @param virtualWidth 虚拟宽度
+     * @param virtualHeight 虚拟高度
+     * @return Banner数据
+     */
+    public static byte[] banner(int realWidth, int realHeight, int virtualWidth, int virtualHeight) {
+        ByteBuffer banner = ByteBuffer.allocate(BANNER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        banner.put((byte) 1).put((byte) BANNER_LENGTH).putInt(1234)
+                .putInt(realWidth).putInt(realHeight).putInt(virtualWidth).putInt(virtualHeight)
+                .put((byte) 1).put((byte) 2);
+        return banner.array();
+    }
+
+    /**
+     * 生成JPEG形式的负载，以SOI开头EOI结尾，中间为随机数据
+     * @param length 长度，至少为4
+     * @return 负载
+     */
+    public byte[] jpeg(int length) {
+        byte[] payload = new byte[Math.max(length, 4)];
+        random.nextBytes(payload);
+        payload[0] = (byte) 0xff;
+        payload[1] = (byte) 0xd8;
+        payload[payload.length - 2] = (byte) 0xff;
+        payload[payload.length - 1] = (byte) 0xd9;
+        return payload;
+    }
+
+    /**
+     * 生成完整的数据流
+     * @param frames 帧
+     * @return 数据流
+     */
+    public static byte[] stream(byte[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] banner = banner(1080, 1920, 540, 960);
+        out.write(banner, 0, banner.length);
+        for (byte[] frame : frames) {
+            out.write(frame.length);
+            out.write(frame.length >> 8);
+            out.write(frame.length >> 16);
+            out.write(frame.length >> 24);
+            out.write(frame, 0, frame.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 生成count帧大小为frameSize的数据流
+     * @param count 帧数
+     * @param frameSize 帧大小
+     * @return 数据流
+     */
+    public byte[] stream(int count, int frameSize) {
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = jpeg(frameSize);
+        }
+        return stream(frames);
+    }
+
+    /**
+     * 每次最多返回chunkSize字节的通道
+     * @param data 数据流
+     * @param chunkSize 分块大小
+     * @return 通道
+     */
+    public static ChunkedChannel channel(byte[] data, int chunkSize) {
+        return new ChunkedChannel(data, chunkSize);
+    }
+
+    /**
+     * 每次最多返回chunkSize字节的输入流
+     * @param data 数据流
+     * @param chunkSize 分块大小
+     * @return 输入流
+     */
+    public static ChunkedInputStream inputStream(byte[] data, int chunkSize) {
+        return new ChunkedInputStream(data, chunkSize);
+    }
+
+    /**
+     * 每次最多返回chunkSize字节的通道，可重置后重复读取
+     */
+    public static class ChunkedChannel implements ReadableByteChannel {
+        private final ByteBuffer data;
+        private final int chunkSize;
+
+        ChunkedChannel(byte[] data, int chunkSize) {
+            this.data = ByteBuffer.wrap(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(Math.min(chunkSize, dst.remaining()), data.remaining());
+            int limit = data.limit();
+            data.limit(data.position() + n);
+            dst.put(data);
+            data.limit(limit);
+            return n;
+        }
+
+        /**
+         * 从头开始读取
+         */
+        public void rewind() {
+            data.rewind();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 每次最多返回chunkSize字节的输入流，可重置后重复读取
+     */
+    public static class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunkSize;
+        private int position = 0;
+
+        ChunkedInputStream(byte[] data, int chunkSize) {
+            this.data = data;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(chunkSize, len), data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * 从头开始读取
+         */
+        public void rewind() {
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.cuiyang.minicap;
+
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过本地模拟的minicap服务测试ScreenProjection，不需要连接设备
+ *
+ * @author cuiyang
+ */
+public class ScreenProjectionLoopbackTest {
+
+    @Test
+    public void testThroughput() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(120);
+            server.setFrameSize(FakeMinicapServer.fixed(500 * 1024));
+            server.start();
+
+            int frames = 120;
+            CountDownLatch latch = new CountDownLatch(frames);
+            AtomicLong totalLatency = new AtomicLong();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setDeliveryPolicy(DeliveryPolicy.CONFLATE);
+            projection.setFrameListener(frame -> {
+                totalLatency.addAndGet(FakeMinicapServer.latencyOf(frame));
+                latch.countDown();
+            });
+            long start = System.nanoTime();
+            projection.start();
+            try {
+                Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("fps: %.1f, 平均延迟: %.2fms%n",
+                        frames / seconds, totalLatency.get() / 1e6 / frames);
+            } finally {
+                projection.close();
+            }
+        }
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.start();
+            CountDownLatch latch = new CountDownLatch(10);
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setExecutors(executor, executor);
+            projection.setFrameListener(frame -> latch.countDown());
+            projection.start(executor);
+            try {
+                Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            } finally {
+                projection.close();
+            }
+            Thread.sleep(200);
+            Assert.assertFalse(projection.isRunning());
+            Assert.assertEquals(0, server.getClientCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEventLoop() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+        try (FakeMinicapServer server = new FakeMinicapServer();
+             MinicapEventLoopGroup group = new MinicapEventLoopGroup(1)) {
+            server.start();
+            CountDownLatch latch = new CountDownLatch(10);
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setEventLoopGroup(group);
+            projection.setFrameListener(frame -> latch.countDown());
+            projection.start(executor);
+            try {
+                Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+                // 帧在事件循环中投递，不占用线程池的线程
+                Assert.assertEquals(0, executor.getActiveCount());
+                Assert.assertEquals(0, projection.getMetrics().getQueueDepth());
+            } finally {
+                projection.close();
+            }
+            Thread.sleep(200);
+            Assert.assertFalse(projection.isRunning());
+            Assert.assertEquals(0, server.getClientCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
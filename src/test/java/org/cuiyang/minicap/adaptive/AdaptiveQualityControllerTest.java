@@ -0,0 +1,132 @@
+package org.cuiyang.minicap.adaptive;
+
+import org.cuiyang.minicap.ScreenProjection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AdaptiveQualityControllerTest
+ *
+ * @author cuiyang
+ */
+public class AdaptiveQualityControllerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBandwidthBudget() {
+        ScreenProjection projection = new ScreenProjection("127.0.0.1", 0);
+        AdaptiveQualityController controller = new AdaptiveQualityController(projection);
+        controller.setBandwidthBudget(1_000_000);
+        controller.setQualityRange(50, 100, 25);
+        controller.setZoomRange(0.5f, 1, 0.25f);
+        controller.setHysteresis(2, 3, 5, TimeUnit.SECONDS);
+
+        Sampler sampler = new Sampler(controller);
+        sampler.sample(30, 2_000_000, 0);
+        // 连续两次超出预算才降级
+        sampler.sample(30, 2_000_000, 0);
+        Assert.assertEquals(100, projection.getQuality());
+        sampler.sample(30, 2_000_000, 0);
+        Assert.assertEquals(75, projection.getQuality());
+        // 冷却时间内不调整
+        for (int i = 0; i < 4; i++) {
+            sampler.sample(30, 2_000_000, 0);
+        }
+        Assert.assertEquals(75, projection.getQuality());
+        sampler.sample(30, 2_000_000, 0);
+        Assert.assertEquals(50, projection.getQuality());
+        // 质量到下限后降缩放
+        for (int i = 0; i < 5; i++) {
+            sampler.sample(30, 2_000_000, 0);
+        }
+        Assert.assertEquals(50, projection.getQuality());
+        Assert.assertEquals(0.75f, projection.getZoom(), 0.001);
+        for (int i = 0; i < 20; i++) {
+            sampler.sample(30, 2_000_000, 0);
+        }
+        Assert.assertEquals(0.5f, projection.getZoom(), 0.001);
+        Assert.assertEquals(4, controller.getAdjustments());
+
+        // 预算内但余量不足时保持不变
+        for (int i = 0; i < 20; i++) {
+            sampler.sample(30, 900_000, 0);
+        }
+        Assert.assertEquals(4, controller.getAdjustments());
+        // 余量充足时先升缩放
+        for (int i = 0; i < 5; i++) {
+            sampler.sample(30, 100_000, 0);
+        }
+        Assert.assertEquals(0.75f, projection.getZoom(), 0.001);
+        Assert.assertEquals(50, projection.getQuality());
+    }
+
+    @Test
+    public void testDrops() {
+        ScreenProjection projection = new ScreenProjection("127.0.0.1", 0);
+        AdaptiveQualityController controller = new AdaptiveQualityController(projection);
+        controller.setHysteresis(1, 1, 0, TimeUnit.SECONDS);
+
+        Sampler sampler = new Sampler(controller);
+        sampler.sample(30, 100_000, 0);
+        sampler.sample(30, 100_000, 5);
+        Assert.assertEquals(90, projection.getQuality());
+        sampler.sample(30, 100_000, 0);
+        Assert.assertEquals(100, projection.getQuality());
+    }
+
+    @Test
+    public void testReconfigureFailed() {
+        AtomicBoolean switched = new AtomicBoolean();
+        ScreenProjection projection = new ScreenProjection("127.0.0.1", 0) {
+            @Override
+            public boolean isRunning() {
+                return true;
+            }
+
+            @Override
+            public boolean reconfigure() {
+                return switched.get();
+            }
+        };
+        AdaptiveQualityController controller = new AdaptiveQualityController(projection);
+        controller.setHysteresis(1, 1, 0, TimeUnit.SECONDS);
+
+        Sampler sampler = new Sampler(controller);
+        sampler.sample(30, 100_000, 0);
+        // 切换失败时恢复原配置
+        sampler.sample(30, 100_000, 5);
+        Assert.assertEquals(100, projection.getQuality());
+        Assert.assertEquals(0, controller.getAdjustments());
+        switched.set(true);
+        sampler.sample(30, 100_000, 5);
+        Assert.assertEquals(90, projection.getQuality());
+        Assert.assertEquals(1, controller.getAdjustments());
+    }
+
+    /**
+     * 按每秒一次采样，传入每秒的增量
+     */
+    private static class Sampler {
+        private final AdaptiveQualityController controller;
+        private long now = SECOND;
+        private long frames;
+        private long bytes;
+        private long dropped;
+
+        Sampler(AdaptiveQualityController controller) {
+            this.controller = controller;
+        }
+
+        void sample(long frames, long bytes, long dropped) {
+            this.frames += frames;
+            this.bytes += bytes;
+            this.dropped += dropped;
+            this.now += SECOND;
+            controller.sample(this.frames, this.bytes, this.dropped, now);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.cuiyang.minicap.ddmlib;
+
+import org.cuiyang.minicap.FakeDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * 通过模拟的设备测试设备信息缓存
+ *
+ * @author cuiyang
+ */
+public class CapabilityCacheTest {
+
+    private static final String PROBE_OUTPUT = "F:google/walleye/walleye:8.1.0/OPM1/1234:user/release-keys\n"
+            + "A:arm64-v8a\n"
+            + "S:27\n"
+            + "Physical size: 1080x1920\n"
+            + "Override size: 720x1280\n";
+
+    @Test
+    public void testCache() throws Exception {
+        File file = new File(Files.createTempDirectory("minicap_test").toFile(), "devices.properties");
+        FakeDevice fake = new FakeDevice("192.168.1.2:5555");
+        fake.setShell(command -> PROBE_OUTPUT);
+        fake.setProperty("ro.build.fingerprint", "google/walleye/walleye:8.1.0/OPM1/1234:user/release-keys");
+
+        // 一次shell调用获取全部信息
+        DeviceInfo info = new CapabilityCache(file).get(fake.device());
+        Assert.assertEquals(1, fake.getCommands().size());
+        Assert.assertEquals("arm64-v8a", info.getAbi());
+        Assert.assertEquals(27, info.getApi());
+        Assert.assertEquals(new PhysicalSize(1080, 1920), info.getPhysicalSize());
+        Assert.assertEquals(new PhysicalSize(720, 1280), info.getDisplaySize());
+
+        // 新的进程从文件中读取，指纹一致时只获取屏幕尺寸
+        fake.setShell(command -> "wm size".equals(command) ? "Physical size: 1080x1920\nOverride size: 720x1280\n" : "");
+        CapabilityCache cache = new CapabilityCache(file);
+        Assert.assertEquals(info, cache.get(fake.device()));
+        Assert.assertEquals(2, fake.getCommands().size());
+        Assert.assertEquals("wm size", fake.getCommands().get(1));
+
+        // 运行时修改wm size
+        fake.setShell(command -> "wm size".equals(command) ? "Physical size: 1080x1920\n" : "");
+        Assert.assertEquals(new PhysicalSize(1080, 1920), cache.get(fake.device()).getDisplaySize());
+        Assert.assertEquals(3, fake.getCommands().size());
+
+        // 系统升级后重新获取
+        fake.setShell(command -> PROBE_OUTPUT);
+        fake.setProperty("ro.build.fingerprint", "google/walleye/walleye:9/PQ1A/5678:user/release-keys");
+        cache.get(fake.device());
+        Assert.assertEquals(4, fake.getCommands().size());
+        Assert.assertNotEquals("wm size", fake.getCommands().get(3));
+    }
+
+    @Test
+    public void testParseSize() {
+        Assert.assertEquals(new PhysicalSize(1080, 1920), DdmlibUtils.parseSize("Physical size: 1080x1920", "Physical size:"));
+        Assert.assertEquals(new PhysicalSize(1080, 1920),
+                DdmlibUtils.parseSize("Physical size: 1080x1920\r\nOverride size: 720x1280\r\n", "Physical size:"));
+        Assert.assertEquals(new PhysicalSize(720, 1280),
+                DdmlibUtils.parseSize("Physical size: 1080x1920\nOverride size: 720x1280", "Override size:"));
+        Assert.assertNull(DdmlibUtils.parseSize("Physical size: 1080x1920", "Override size:"));
+    }
+}
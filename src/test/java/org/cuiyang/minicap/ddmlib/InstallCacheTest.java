@@ -0,0 +1,73 @@
+package org.cuiyang.minicap.ddmlib;
+
+import org.cuiyang.minicap.FakeDevice;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 通过模拟的设备测试安装缓存
+ *
+ * @author cuiyang
+ */
+public class InstallCacheTest {
+
+    private static final List<InstallCache.Binary> BINARIES = Arrays.asList(
+            new InstallCache.Binary("minicap/bin/x86/minicap", "/data/local/tmp/minicap", "777"),
+            new InstallCache.Binary("minicap/bin/x86/minicap-nopie", "/data/local/tmp/minicap-nopie", "777"),
+            new InstallCache.Binary("minicap/shared/android-23/x86/minicap.so", "/data/local/tmp/minicap.so", "777"));
+
+    @Test
+    public void testInstall() throws Exception {
+        InstallCache cache = new InstallCache();
+        FakeDevice fake = new FakeDevice("fake");
+
+        // 设备上没有文件，全部推送，一次chmod
+        Assert.assertEquals(3, cache.install(fake.device(), BINARIES));
+        Assert.assertEquals(3, fake.getPushes().size());
+        Assert.assertEquals(2, fake.getCommands().size());
+        Assert.assertTrue(fake.getCommands().get(0).startsWith("md5sum "));
+        Assert.assertTrue(fake.getCommands().get(1).startsWith("chmod 777 "));
+
+        // MD5一致时跳过
+        String md5 = md5sum(cache, 3);
+        fake.setShell(command -> command.startsWith("md5sum") ? md5 : "");
+        fake.getPushes().clear();
+        fake.getCommands().clear();
+        Assert.assertEquals(0, cache.install(fake.device(), BINARIES));
+        Assert.assertEquals(0, fake.getPushes().size());
+        Assert.assertEquals(1, fake.getCommands().size());
+
+        // 只推送不一致的文件
+        String partial = md5sum(cache, 2);
+        fake.setShell(command -> command.startsWith("md5sum") ? partial : "");
+        Assert.assertEquals(1, cache.install(fake.device(), BINARIES));
+        Assert.assertEquals(Arrays.asList("/data/local/tmp/minicap.so"), fake.getPushes());
+
+        // 强制推送，不校验
+        fake.getCommands().clear();
+        fake.getPushes().clear();
+        Assert.assertEquals(3, cache.install(fake.device(), BINARIES, true));
+        Assert.assertEquals(3, fake.getPushes().size());
+        Assert.assertTrue(fake.getCommands().stream().noneMatch(command -> command.startsWith("md5sum")));
+
+        // 每个文件只解压一次
+        Assert.assertSame(cache.resolve("minicap/bin/x86/minicap"), cache.resolve("minicap/bin/x86/minicap"));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testNotFound() throws Exception {
+        new InstallCache().resolve("minicap/bin/mips/minicap");
+    }
+
+    private static String md5sum(InstallCache cache, int count) throws Exception {
+        StringBuilder output = new StringBuilder();
+        for (InstallCache.Binary binary : BINARIES.subList(0, count)) {
+            output.append(cache.resolve(binary.getResource()).getMd5()).append("  ").append(binary.getRemote()).append('\n');
+        }
+        return output.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package org.cuiyang.minicap.fleet;
+
+import org.cuiyang.minicap.FakeDevice;
+import org.cuiyang.minicap.FakeMinicapServer;
+import org.cuiyang.minicap.ScreenProjection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 通过模拟的设备和本地模拟的minicap服务测试设备集群，不需要连接设备
+ *
+ * @author cuiyang
+ */
+public class DeviceFleetTest {
+
+    @Test
+    public void testReconfigureFullFleet() throws Exception {
+        CountDownLatch exit = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        FakeDevice fake = new FakeDevice("fleet-full");
+        fake.setShell(command -> {
+            if (command.contains("getprop")) {
+                return "F:fake\nA:x86\nS:23\nPhysical size: 720x1280\n";
+            }
+            if (command.contains("/data/local/tmp/minicap -n")) {
+                // minicap运行期间shell一直阻塞
+                running.incrementAndGet();
+                try {
+                    exit.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }
+            return "";
+        });
+
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.start();
+            // 端口转发由模拟的minicap服务代替
+            PortAllocator portAllocator = new PortAllocator(server.getPort(), 1) {
+                @Override
+                protected boolean isAvailable(int port) {
+                    return true;
+                }
+            };
+            DeviceFleet fleet = new DeviceFleet(1, portAllocator, 1);
+            try {
+                CountDownLatch received = new CountDownLatch(1);
+                AtomicReference<String> thread = new AtomicReference<>();
+                ScreenProjection projection = fleet.attachFrames(fake.device(), frame -> {
+                    thread.compareAndSet(null, Thread.currentThread().getName());
+                    received.countDown();
+                });
+                Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+                // 帧在集群共享的投递线程池中投递
+                Assert.assertTrue(thread.get().startsWith("minicap-dispatch-"));
+
+                // 设备数量已达上限时，新旧两个Minicap服务同时运行
+                projection.setReconfigureTimeout(5, TimeUnit.SECONDS);
+                Assert.assertTrue(projection.reconfigure());
+                // 模拟的minicap服务不等待shell，新的shell可能稍后才开始运行
+                long deadline = System.currentTimeMillis() + 5000;
+                while (running.get() < 2 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(2, running.get());
+            } finally {
+                exit.countDown();
+                fleet.close();
+            }
+        }
+    }
+}
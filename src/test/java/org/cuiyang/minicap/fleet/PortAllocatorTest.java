@@ -0,0 +1,46 @@
+package org.cuiyang.minicap.fleet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+/**
+ * PortAllocatorTest
+ *
+ * @author cuiyang
+ */
+public class PortAllocatorTest {
+
+    @Test
+    public void testAllocate() throws Exception {
+        int from;
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            from = probe.getLocalPort();
+        }
+        PortAllocator allocator = new PortAllocator(from, 3);
+        try (ServerSocket ignored = new ServerSocket(from + 1, 1, InetAddress.getLoopbackAddress())) {
+            int first = allocator.allocate();
+            int second = allocator.allocate();
+            Assert.assertEquals(from, first);
+            // 跳过已被占用的端口
+            Assert.assertEquals(from + 2, second);
+            Assert.assertEquals(2, allocator.getAllocated());
+            allocator.release(first);
+            Assert.assertEquals(from, allocator.allocate());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExhausted() {
+        PortAllocator allocator = new PortAllocator(40000, 1) {
+            @Override
+            protected boolean isAvailable(int port) {
+                return true;
+            }
+        };
+        allocator.allocate();
+        allocator.allocate();
+    }
+}
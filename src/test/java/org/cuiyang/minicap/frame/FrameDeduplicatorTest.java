@@ -0,0 +1,111 @@
+package org.cuiyang.minicap.frame;
+
+import org.cuiyang.minicap.FrameListener;
+import org.cuiyang.minicap.hub.FrameHub;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameDeduplicatorTest
+ *
+ * @author cuiyang
+ */
+public class FrameDeduplicatorTest {
+
+    @Test
+    public void testHash() {
+        Assert.assertEquals(0xEF46DB3751D8E999L, FrameHash.xxh64(ByteBuffer.allocate(0), 0));
+        Assert.assertEquals(0x44BC2CF5AD770999L, FrameHash.xxh64(ascii("abc"), 0));
+        ByteBuffer large = ByteBuffer.allocate(1000);
+        for (int i = 0; i < large.capacity(); i++) {
+            large.put(i, (byte) i);
+        }
+        long hash = FrameHash.xxh64(large, 0);
+        // 与position无关，只取决于内容
+        ByteBuffer shifted = ByteBuffer.allocateDirect(1001);
+        shifted.position(1);
+        shifted.put(large.duplicate());
+        shifted.position(1);
+        Assert.assertEquals(hash, FrameHash.xxh64(shifted, 0));
+        large.put(999, (byte) 0);
+        Assert.assertNotEquals(hash, FrameHash.xxh64(large, 0));
+    }
+
+    @Test
+    public void testDeduplicate() {
+        List<String> events = new ArrayList<>();
+        FrameDeduplicator deduplicator = new FrameDeduplicator(new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                events.add("frame:" + frame.getSequence());
+            }
+
+            @Override
+            public void onUnchanged(long suppressed) {
+                events.add("unchanged:" + suppressed);
+            }
+        });
+        FrameMetrics metrics = new FrameMetrics();
+        deduplicator.setMetrics(metrics);
+        deduplicator.setHeartbeatInterval(0, TimeUnit.MILLISECONDS);
+        deduplicator.onFrame(frame(1, "a"));
+        deduplicator.onFrame(frame(2, "a"));
+        deduplicator.onFrame(frame(3, "a"));
+        deduplicator.onFrame(frame(4, "b"));
+        deduplicator.onFrame(frame(5, "a"));
+        Assert.assertEquals(Arrays.asList(
+                "frame:1", "unchanged:1", "unchanged:2", "frame:4", "frame:5"), events);
+        Assert.assertEquals(2, deduplicator.getSuppressed());
+        Assert.assertEquals(3, deduplicator.getForwarded());
+        Assert.assertEquals(2, metrics.getSuppressedFrames());
+
+        // 心跳间隔内只发送一次
+        events.clear();
+        deduplicator.setHeartbeatInterval(1, TimeUnit.HOURS);
+        deduplicator.onFrame(frame(6, "a"));
+        deduplicator.onFrame(frame(7, "a"));
+        Assert.assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testHubHeartbeat() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> heartbeats = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        hub.subscribe(new FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+            }
+
+            @Override
+            public void onUnchanged(long suppressed) {
+                heartbeats.add(suppressed);
+                latch.countDown();
+            }
+        });
+        hub.onUnchanged(30);
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList(30L), heartbeats);
+        hub.close();
+    }
+
+    private static Frame frame(long sequence, String content) {
+        Frame frame = Frame.wrap(content.getBytes(StandardCharsets.US_ASCII));
+        frame.setSequence(sequence);
+        return frame;
+    }
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
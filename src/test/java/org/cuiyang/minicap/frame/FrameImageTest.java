@@ -0,0 +1,67 @@
+package org.cuiyang.minicap.frame;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * FrameImageTest
+ *
+ * @author cuiyang
+ */
+public class FrameImageTest {
+
+    @Test
+    public void testImage() throws Exception {
+        Frame frame = Frame.wrap(jpeg(64, 48));
+        BufferedImage image = frame.image();
+        Assert.assertEquals(64, image.getWidth());
+        Assert.assertEquals(48, image.getHeight());
+        Assert.assertSame(image, frame.image());
+        Assert.assertSame(image, frame.image(1));
+
+        BufferedImage thumbnail = frame.image(4);
+        Assert.assertEquals(16, thumbnail.getWidth());
+        Assert.assertEquals(12, thumbnail.getHeight());
+        Assert.assertSame(thumbnail, frame.image(4));
+
+        BufferedImage region = frame.image(new Rectangle(32, 0, 32, 24), 2);
+        Assert.assertEquals(16, region.getWidth());
+        Assert.assertEquals(12, region.getHeight());
+        // 右上角为红色
+        Color color = new Color(region.getRGB(8, 6));
+        Assert.assertTrue(color.getRed() > 200 && color.getGreen() < 50);
+
+        frame.release();
+        try {
+            frame.image();
+            Assert.fail();
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalid() throws Exception {
+        Frame.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, 1, 2, 3}).image();
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLUE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.fillRect(width / 2, 0, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
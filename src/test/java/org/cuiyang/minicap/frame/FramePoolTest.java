@@ -0,0 +1,57 @@
+package org.cuiyang.minicap.frame;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * FramePoolTest
+ *
+ * @author cuiyang
+ */
+public class FramePoolTest {
+
+    @Test
+    public void testRecycle() {
+        FramePool pool = new FramePool(true);
+        Frame frame = pool.allocate(100 * 1024);
+        Assert.assertEquals(100 * 1024, frame.length());
+        Assert.assertEquals(1, pool.getStats().getOutstanding());
+        frame.retain();
+        Assert.assertFalse(frame.release());
+        Assert.assertTrue(frame.release());
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+        Assert.assertEquals(1, pool.getStats().getPooled());
+
+        // 同一等级命中
+        Frame again = pool.allocate(120 * 1024);
+        Assert.assertEquals(1, pool.getStats().getHits());
+        Assert.assertEquals(0.5, pool.getStats().getHitRate(), 0.001);
+        again.release();
+    }
+
+    @Test
+    public void testContent() {
+        FramePool pool = new FramePool(false);
+        Frame frame = pool.allocate(3);
+        frame.content().put(new byte[]{1, 2, 3});
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, frame.toByteArray());
+        Assert.assertEquals(3, frame.buffer().remaining());
+        frame.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleased() {
+        Frame frame = new FramePool(false).allocate(10);
+        frame.release();
+        frame.buffer();
+    }
+
+    @Test
+    public void testOversize() {
+        FramePool pool = new FramePool(false, 1024, 4096, 4);
+        Frame frame = pool.allocate(8192);
+        frame.release();
+        Assert.assertEquals(0, pool.getStats().getPooled());
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+    }
+}
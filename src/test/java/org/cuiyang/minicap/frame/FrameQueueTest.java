@@ -0,0 +1,99 @@
+package org.cuiyang.minicap.frame;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameQueueTest
+ *
+ * @author cuiyang
+ */
+public class FrameQueueTest {
+
+    private final FramePool pool = new FramePool(false);
+
+    @Test
+    public void testConflate() throws Exception {
+        FrameQueue queue = DeliveryPolicy.CONFLATE.newQueue(0);
+        Frame first = frame(1);
+        queue.offer(first);
+        queue.offer(frame(2));
+        Assert.assertEquals(0, first.refCnt());
+        Assert.assertEquals(1, queue.getDropped());
+        Frame take = queue.take();
+        Assert.assertEquals(2, take.getSequence());
+        take.release();
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testConflateWakeUp() throws Exception {
+        FrameQueue queue = DeliveryPolicy.CONFLATE.newQueue(0);
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.take().release();
+                latch.countDown();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        queue.offer(frame(1));
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        FrameQueue queue = DeliveryPolicy.DROP_OLDEST.newQueue(2);
+        Frame first = frame(1);
+        queue.offer(first);
+        queue.offer(frame(2));
+        queue.offer(frame(3));
+        Assert.assertEquals(0, first.refCnt());
+        Assert.assertEquals(2, queue.size());
+        Assert.assertEquals(1, queue.getDropped());
+        Assert.assertEquals(2, queue.poll().getSequence());
+        Assert.assertEquals(3, queue.take().getSequence());
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        FrameQueue queue = DeliveryPolicy.BLOCK.newQueue(1);
+        queue.offer(frame(1));
+        Thread producer = new Thread(() -> {
+            try {
+                queue.offer(frame(2));
+            } catch (InterruptedException ignore) {
+            }
+        });
+        producer.start();
+        producer.join(100);
+        Assert.assertTrue(producer.isAlive());
+        Assert.assertEquals(1, queue.take().getSequence());
+        producer.join(1000);
+        Assert.assertFalse(producer.isAlive());
+        Assert.assertEquals(2, queue.take().getSequence());
+        Assert.assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        FrameQueue queue = DeliveryPolicy.DROP_OLDEST.newQueue(4);
+        Frame frame = frame(1);
+        queue.offer(frame);
+        queue.clear();
+        Assert.assertEquals(0, frame.refCnt());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    private Frame frame(long sequence) {
+        Frame frame = pool.allocate(16);
+        frame.setSequence(sequence);
+        return frame;
+    }
+}
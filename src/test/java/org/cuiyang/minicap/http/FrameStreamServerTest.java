@@ -0,0 +1,215 @@
+package org.cuiyang.minicap.http;
+
+import org.cuiyang.minicap.FakeMinicapServer;
+import org.cuiyang.minicap.ScreenProjection;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 通过本地模拟的minicap服务测试推流
+ *
+ * @author cuiyang
+ */
+public class FrameStreamServerTest {
+
+    @Test
+    public void testMjpeg() throws Exception {
+        try (FakeMinicapServer minicap = new FakeMinicapServer();
+             FrameStreamServer server = new FrameStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            minicap.setFrameSize(FakeMinicapServer.fixed(100 * 1024));
+            minicap.start();
+            server.start();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", minicap.getPort());
+            projection.subscribe(server, DeliveryPolicy.CONFLATE);
+            projection.start();
+            try {
+                URL url = new URL("http://127.0.0.1:" + server.getPort() + "/stream.mjpeg");
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                Assert.assertEquals(200, connection.getResponseCode());
+                Assert.assertTrue(connection.getContentType().startsWith("multipart/x-mixed-replace"));
+                InputStream in = connection.getInputStream();
+                for (int i = 0; i < 5; i++) {
+                    Assert.assertEquals("--minicap", readLine(in));
+                    Assert.assertEquals("Content-Type: image/jpeg", readLine(in));
+                    String contentLength = readLine(in);
+                    Assert.assertEquals("", readLine(in));
+                    int length = Integer.parseInt(contentLength.substring("Content-Length: ".length()));
+                    Assert.assertEquals(100 * 1024, length);
+                    byte[] jpeg = new byte[length];
+                    new DataInputStream(in).readFully(jpeg);
+                    Assert.assertEquals((byte) 0xff, jpeg[0]);
+                    Assert.assertEquals((byte) 0xd8, jpeg[1]);
+                    Assert.assertEquals((byte) 0xd9, jpeg[length - 1]);
+                    Assert.assertEquals("", readLine(in));
+                }
+                Assert.assertEquals(1, server.getViewers());
+                connection.disconnect();
+            } finally {
+                projection.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocket() throws Exception {
+        try (FakeMinicapServer minicap = new FakeMinicapServer();
+             FrameStreamServer server = new FrameStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            minicap.setFrameSize(FakeMinicapServer.fixed(1024));
+            minicap.start();
+            server.start();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", minicap.getPort());
+            projection.subscribe(server, DeliveryPolicy.CONFLATE);
+            projection.start();
+            try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                out.write(("GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                InputStream in = socket.getInputStream();
+                Assert.assertEquals("HTTP/1.1 101 Switching Protocols", readLine(in));
+                String accept = null;
+                String line;
+                while (!(line = readLine(in)).isEmpty()) {
+                    if (line.startsWith("Sec-WebSocket-Accept: ")) {
+                        accept = line.substring("Sec-WebSocket-Accept: ".length());
+                    }
+                }
+                Assert.assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", accept);
+                DataInputStream data = new DataInputStream(in);
+                long last = -1;
+                for (int i = 0; i < 5; i++) {
+                    Assert.assertEquals(0x82, data.readUnsignedByte());
+                    Assert.assertEquals(126, data.readUnsignedByte());
+                    int length = data.readUnsignedShort();
+                    Assert.assertEquals(1024, length);
+                    byte[] jpeg = new byte[length];
+                    data.readFully(jpeg);
+                    long sequence = ByteBuffer.wrap(jpeg).getLong(10);
+                    Assert.assertTrue(sequence > last);
+                    last = sequence;
+                }
+                // 客户端关闭
+                out.write(new byte[]{(byte) 0x88, (byte) 0x80, 0, 0, 0, 0});
+                out.flush();
+                long deadline = System.currentTimeMillis() + 2000;
+                while (server.getViewers() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(0, server.getViewers());
+            } finally {
+                projection.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocketSlowReader() throws Exception {
+        int size = 4 * 1024 * 1024;
+        try (FakeMinicapServer minicap = new FakeMinicapServer();
+             FrameStreamServer server = new FrameStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            minicap.setFrameSize(FakeMinicapServer.fixed(size));
+            minicap.start();
+            server.start();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", minicap.getPort());
+            projection.subscribe(server, DeliveryPolicy.CONFLATE);
+            projection.start();
+            try (Socket socket = new Socket()) {
+                socket.setReceiveBufferSize(16 * 1024);
+                socket.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+                DataInputStream data = new DataInputStream(upgrade(socket));
+                byte[] chunk = new byte[64 * 1024];
+                for (int i = 0; i < 3; i++) {
+                    // 每帧都需要多次写入
+                    Assert.assertEquals(0x82, data.readUnsignedByte());
+                    Assert.assertEquals(127, data.readUnsignedByte());
+                    Assert.assertEquals(size, data.readLong());
+                    byte[] jpeg = new byte[size];
+                    for (int read = 0; read < size; read += chunk.length) {
+                        data.readFully(jpeg, read, Math.min(chunk.length, size - read));
+                        Thread.sleep(1);
+                    }
+                    Assert.assertEquals((byte) 0xff, jpeg[0]);
+                    Assert.assertEquals((byte) 0xd8, jpeg[1]);
+                    Assert.assertEquals((byte) 0xd9, jpeg[size - 1]);
+                }
+            } finally {
+                projection.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWebSocketInvalidFrame() throws Exception {
+        try (FrameStreamServer server = new FrameStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            server.start();
+            // 未掩码
+            assertClosed(server, new byte[]{(byte) 0x81, 1, 'a'});
+            // 长度为负数
+            assertClosed(server, new byte[]{(byte) 0x82, (byte) 0xff, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3, 4});
+        }
+    }
+
+    private static void assertClosed(FrameStreamServer server, byte[] message) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(2000);
+            InputStream in = upgrade(socket);
+            socket.getOutputStream().write(message);
+            socket.getOutputStream().flush();
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * 升级为WebSocket连接，返回读取完响应头的输入流
+     */
+    private static InputStream upgrade(Socket socket) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        InputStream in = socket.getInputStream();
+        Assert.assertEquals("HTTP/1.1 101 Switching Protocols", readLine(in));
+        while (!readLine(in).isEmpty()) {
+            // 跳过响应头
+        }
+        return in;
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        try (FrameStreamServer server = new FrameStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            server.start();
+            URL url = new URL("http://127.0.0.1:" + server.getPort() + "/unknown");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(404, connection.getResponseCode());
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new IOException("连接已关闭");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
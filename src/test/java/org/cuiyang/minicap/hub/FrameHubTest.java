@@ -0,0 +1,354 @@
+package org.cuiyang.minicap.hub;
+
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.cuiyang.minicap.frame.FramePool;
+import org.cuiyang.minicap.util.VirtualThreads;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameHubTest
+ *
+ * @author cuiyang
+ */
+public class FrameHubTest {
+
+    private final FramePool pool = new FramePool(false);
+
+    @Test
+    public void testSlowSubscriber() throws Exception {
+        FrameHub hub = new FrameHub();
+        int frames = 100;
+        CountDownLatch fastLatch = new CountDownLatch(frames);
+        List<Long> fastSequences = Collections.synchronizedList(new ArrayList<>());
+        Subscription fast = hub.subscribe(frame -> {
+            fastSequences.add(frame.getSequence());
+            fastLatch.countDown();
+        }, DeliveryPolicy.DROP_OLDEST, frames);
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch slowRelease = new CountDownLatch(1);
+        Subscription slow = hub.subscribe(frame -> {
+            slowStarted.countDown();
+            try {
+                slowRelease.await();
+            } catch (InterruptedException ignore) {
+            }
+        }, DeliveryPolicy.CONFLATE);
+
+        List<Frame> published = new ArrayList<>();
+        for (int i = 1; i <= frames; i++) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(i);
+            hub.onFrame(frame);
+            frame.release();
+            published.add(frame);
+        }
+        // 慢订阅者不影响快订阅者，且快订阅者按顺序接收
+        Assert.assertTrue(fastLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < frames; i++) {
+            Assert.assertEquals(i + 1, (long) fastSequences.get(i));
+        }
+        Assert.assertTrue(slowStarted.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(slow.getDropped() > 0);
+        slowRelease.countDown();
+
+        Thread.sleep(100);
+        Assert.assertEquals(frames, fast.getDelivered());
+        for (Frame frame : published) {
+            Assert.assertEquals(0, frame.refCnt());
+        }
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        FrameHub hub = new FrameHub();
+        CountDownLatch latch = new CountDownLatch(1);
+        Subscription subscription = hub.subscribe(frame -> latch.countDown());
+        Frame frame = pool.allocate(16);
+        hub.onFrame(frame);
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        subscription.close();
+        Assert.assertFalse(hub.hasSubscribers());
+        hub.onFrame(frame);
+        Thread.sleep(50);
+        Assert.assertEquals(1, subscription.getDelivered());
+        frame.release();
+        Assert.assertEquals(0, frame.refCnt());
+    }
+
+    @Test
+    public void testErrorHandler() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> errors = Collections.synchronizedList(new ArrayList<>());
+        hub.setErrorHandler((listener, frame, error) -> errors.add(frame.getSequence()));
+        CountDownLatch latch = new CountDownLatch(3);
+        Subscription subscription = hub.subscribe(frame -> {
+            latch.countDown();
+            if (frame.getSequence() == 2) {
+                throw new IllegalStateException("error");
+            }
+        }, DeliveryPolicy.BLOCK);
+        for (int i = 1; i <= 3; i++) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(i);
+            hub.onFrame(frame);
+            frame.release();
+        }
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assert.assertEquals(Collections.singletonList(2L), errors);
+        Assert.assertEquals(2, subscription.getDelivered());
+        Assert.assertEquals(3, subscription.getListenerTime().getCount());
+        hub.close();
+    }
+
+    @Test
+    public void testListenerError() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        hub.setErrorHandler((listener, frame, error) -> errors.add(error));
+        CountDownLatch latch = new CountDownLatch(1);
+        Subscription subscription = hub.subscribe(frame -> {
+            if (frame.getSequence() == 1) {
+                throw new AssertionError("error");
+            }
+            latch.countDown();
+        }, DeliveryPolicy.BLOCK);
+        for (int i = 1; i <= 2; i++) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(i);
+            hub.onFrame(frame);
+            frame.release();
+        }
+        // 监听抛出Error后继续投递
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0) instanceof AssertionError);
+        Assert.assertEquals(1, subscription.getDelivered());
+        hub.close();
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        FrameHub hub = new FrameHub(executor);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        hub.setErrorHandler((listener, frame, error) -> errors.add(error));
+        CountDownLatch latch = new CountDownLatch(1);
+        Subscription subscription = hub.subscribe(frame -> latch.countDown(), DeliveryPolicy.DROP_OLDEST, 4);
+        Frame frame = pool.allocate(16);
+        hub.onFrame(frame);
+        frame.release();
+        // 线程池拒绝时释放收件队列中的帧
+        Assert.assertEquals(1, errors.size());
+        Assert.assertTrue(errors.get(0) instanceof RejectedExecutionException);
+        Assert.assertEquals(0, subscription.getQueued());
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+
+        // 更换线程池后恢复投递
+        ExecutorService newExecutor = Executors.newSingleThreadExecutor();
+        hub.setExecutor(newExecutor);
+        frame = pool.allocate(16);
+        hub.onFrame(frame);
+        frame.release();
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        hub.close();
+        newExecutor.shutdown();
+    }
+
+    @Test
+    public void testSetExecutor() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        hub.subscribe(frame -> {
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+        });
+        ExecutorService executor = VirtualThreads.isSupported()
+                ? VirtualThreads.newThreadPerTaskExecutor("dispatch-")
+                : Executors.newSingleThreadExecutor(r -> new Thread(r, "dispatch-0"));
+        hub.setExecutor(executor);
+        Frame frame = pool.allocate(16);
+        hub.onFrame(frame);
+        frame.release();
+        Assert.assertTrue(latch.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("dispatch-0"), threads);
+        hub.close();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testVirtualThreads() {
+        if (VirtualThreads.isSupported()) {
+            VirtualThreads.newThreadPerTaskExecutor("virtual-").shutdown();
+            return;
+        }
+        try {
+            VirtualThreads.newThreadPerTaskExecutor("virtual-");
+            Assert.fail();
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        Subscription limited = hub.subscribe(frame -> sequences.add(frame.getSequence()),
+                DeliveryPolicy.BLOCK, RateLimit.tokenBucket(5, 3));
+        Subscription full = hub.subscribe(frame -> { }, DeliveryPolicy.BLOCK, 100);
+        for (int i = 0; i < 10; i++) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(i);
+            hub.onFrame(frame);
+            // 限流丢弃的帧不增加引用
+            Assert.assertTrue(frame.refCnt() <= 3);
+            frame.release();
+        }
+        Thread.sleep(100);
+        // 桶容量内的帧连续投递
+        Assert.assertEquals(Arrays.asList(0L, 1L, 2L), sequences);
+        Assert.assertEquals(3, limited.getDelivered());
+        Assert.assertEquals(7, limited.getRateLimited());
+        Assert.assertEquals(10, full.getDelivered());
+        Assert.assertEquals(0, full.getRateLimited());
+
+        // 令牌恢复后放行
+        Thread.sleep(250);
+        Frame frame = pool.allocate(16);
+        frame.setSequence(10);
+        hub.onFrame(frame);
+        frame.release();
+        Thread.sleep(100);
+        Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 10L), sequences);
+
+        limited.setRateLimit(null);
+        Assert.assertNull(limited.getRateLimit());
+        hub.close();
+        Thread.sleep(100);
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+    }
+
+    @Test
+    public void testRateLimitLatest() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        Subscription subscription = hub.subscribe(frame -> {
+            sequences.add(frame.getSequence());
+            latch.countDown();
+        }, DeliveryPolicy.CONFLATE, RateLimit.interval(200, TimeUnit.MILLISECONDS).latest());
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(i);
+            hub.onFrame(frame);
+            frame.release();
+        }
+        // 第一帧立即投递，窗口内最新的帧在窗口结束时投递
+        Assert.assertTrue(latch.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+        Assert.assertEquals(Arrays.asList(0L, 9L), sequences);
+        Assert.assertEquals(8, subscription.getRateLimited());
+
+        // 取消订阅时释放等待中的帧
+        Frame frame = pool.allocate(16);
+        hub.onFrame(frame);
+        frame.release();
+        Assert.assertEquals(1, frame.refCnt());
+        subscription.close();
+        Assert.assertEquals(0, frame.refCnt());
+        // 取消订阅后不再持有新的帧
+        Frame late = pool.allocate(16);
+        subscription.publish(late);
+        Assert.assertEquals(1, late.refCnt());
+        late.release();
+        Thread.sleep(300);
+        Assert.assertEquals(2, sequences.size());
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+    }
+
+    @Test(timeout = 5000)
+    public void testRateLimitLatestBlocked() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> blockedSequences = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        Subscription blocked = hub.subscribe(frame -> {
+            blockedSequences.add(frame.getSequence());
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        }, DeliveryPolicy.BLOCK, 1, RateLimit.interval(100, TimeUnit.MILLISECONDS).latest());
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        hub.subscribe(frame -> sequences.add(frame.getSequence()),
+                DeliveryPolicy.CONFLATE, RateLimit.interval(100, TimeUnit.MILLISECONDS).latest());
+
+        publish(hub, 0, 1, 2);
+        Thread.sleep(150);
+        // 收件队列已满，等待中的帧不阻塞定时线程
+        publish(hub, 3);
+        Thread.sleep(200);
+        publish(hub, 4, 5);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!sequences.contains(5L) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Arrays.asList(0L, 2L, 3L, 4L, 5L), sequences);
+
+        // 监听恢复后投递最新的帧
+        release.countDown();
+        deadline = System.currentTimeMillis() + 2000;
+        while (!blockedSequences.contains(5L) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Arrays.asList(0L, 2L, 5L), blockedSequences);
+        Assert.assertEquals(3, blocked.getRateLimited());
+
+        hub.close();
+        Thread.sleep(100);
+        Assert.assertEquals(0, pool.getStats().getOutstanding());
+    }
+
+    @Test
+    public void testRateLimitLatestOrder() throws Exception {
+        FrameHub hub = new FrameHub();
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        hub.subscribe(frame -> sequences.add(frame.getSequence()),
+                DeliveryPolicy.BLOCK, 1000, RateLimit.tokenBucket(500, 3).latest());
+        for (int i = 0; i < 500; i++) {
+            publish(hub, i);
+            TimeUnit.MICROSECONDS.sleep(500);
+        }
+        Thread.sleep(100);
+        // 放行的帧不会先于等待中的帧投递
+        for (int i = 1; i < sequences.size(); i++) {
+            Assert.assertTrue(sequences.get(i - 1) < sequences.get(i));
+        }
+        hub.close();
+    }
+
+    private void publish(FrameHub hub, long... sequences) {
+        for (long sequence : sequences) {
+            Frame frame = pool.allocate(16);
+            frame.setSequence(sequence);
+            hub.onFrame(frame);
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.cuiyang.minicap.hub;
+
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * FramePublisherTest
+ *
+ * @author cuiyang
+ */
+public class FramePublisherTest {
+
+    @Test
+    public void testDemand() throws Exception {
+        FrameHub hub = new FrameHub();
+        AtomicBoolean sourceClosed = new AtomicBoolean(false);
+        FramePublisher publisher = new FramePublisher(hub, () -> sourceClosed.set(true));
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        publish(hub, 1);
+        Assert.assertTrue(subscriber.await(1));
+        // 没有需求时只保留最新的一帧
+        publish(hub, 2);
+        publish(hub, 3);
+        Thread.sleep(100);
+        Assert.assertEquals(1, subscriber.sequences.size());
+        subscriber.subscription.request(5);
+        Assert.assertTrue(subscriber.await(2));
+        Assert.assertEquals(3L, (long) subscriber.sequences.get(1));
+
+        subscriber.subscription.cancel();
+        Assert.assertTrue(sourceClosed.get());
+        Thread.sleep(50);
+        Assert.assertFalse(hub.hasSubscribers());
+        publish(hub, 4);
+        Thread.sleep(50);
+        Assert.assertEquals(2, subscriber.sequences.size());
+        Assert.assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testComplete() throws Exception {
+        FrameHub hub = new FrameHub();
+        FramePublisher publisher = new FramePublisher(hub);
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        publish(hub, 1);
+        Assert.assertTrue(subscriber.await(1));
+        hub.close();
+        Assert.assertTrue(subscriber.terminated.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        FrameHub hub = new FrameHub();
+        TestSubscriber subscriber = new TestSubscriber();
+        new FramePublisher(hub).subscribe(subscriber);
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.terminated.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+        Thread.sleep(50);
+        Assert.assertFalse(hub.hasSubscribers());
+    }
+
+    private static void publish(FrameHub hub, long sequence) {
+        Frame frame = Frame.wrap(new byte[16]);
+        frame.setSequence(sequence);
+        hub.onFrame(frame);
+        frame.release();
+    }
+
+    private static class TestSubscriber implements Subscriber<Frame> {
+        private final List<Long> sequences = new CopyOnWriteArrayList<>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile boolean completed = false;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Frame frame) {
+            sequences.add(frame.getSequence());
+            frame.release();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+
+        boolean await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 1000;
+            while (sequences.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            return sequences.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.cuiyang.minicap.metrics;
+
+import org.cuiyang.minicap.FakeMinicapServer;
+import org.cuiyang.minicap.ScreenProjection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过本地模拟的minicap服务测试指标
+ *
+ * @author cuiyang
+ */
+public class FrameMetricsTest {
+
+    @Test
+    public void testJmx() throws Exception {
+        FrameMetrics metrics = MetricsRegistry.register("fake-device");
+        long aggregateFrames = MetricsRegistry.getAggregate().getFramesReceived();
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFrameSize(FakeMinicapServer.fixed(10 * 1024));
+            server.start();
+            CountDownLatch latch = new CountDownLatch(20);
+            CountDownLatch reconnected = new CountDownLatch(25);
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setMetrics(metrics);
+            projection.setFrameListener(frame -> {
+                latch.countDown();
+                if (latch.getCount() == 0) {
+                    reconnected.countDown();
+                }
+            });
+            projection.start();
+            try {
+                Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+                server.disconnect();
+                Assert.assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+            } finally {
+                projection.close();
+            }
+        }
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = MetricsRegistry.objectName("fake-device");
+        long frames = (Long) mBeanServer.getAttribute(name, "FramesReceived");
+        Assert.assertTrue(frames >= 20);
+        Assert.assertEquals(frames * 10 * 1024, (long) (Long) mBeanServer.getAttribute(name, "BytesReceived"));
+        Assert.assertEquals(10 * 1024, (long) (Long) mBeanServer.getAttribute(name, "FrameSizeMax"));
+        Assert.assertEquals(1, (long) (Long) mBeanServer.getAttribute(name, "Reconnects"));
+        Assert.assertTrue(metrics.getLatencyHistogram().getCount() >= 20);
+        Assert.assertTrue((Double) mBeanServer.getAttribute(name, "LatencyP99Millis") > 0);
+        Assert.assertTrue(MetricsRegistry.getAggregate().getFramesReceived() - aggregateFrames >= frames);
+
+        MetricsRegistry.unregister("fake-device", metrics);
+        Assert.assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testSlowListener() throws Exception {
+        FrameMetrics metrics = new FrameMetrics();
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(60);
+            server.start();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setMetrics(metrics);
+            projection.setFrameListener(frame -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            projection.start();
+            try {
+                // 监听处理不及时，收件队列中丢弃的帧计入指标
+                long deadline = System.currentTimeMillis() + 5000;
+                while (metrics.getDroppedFrames() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertTrue(metrics.getDroppedFrames() > 0);
+                Assert.assertTrue(metrics.getQueueDepth() > 0);
+                // 延迟包括监听的处理耗时
+                Assert.assertTrue(metrics.getLatencyHistogram().getValueAtPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(50));
+            } finally {
+                projection.close();
+            }
+        }
+    }
+}
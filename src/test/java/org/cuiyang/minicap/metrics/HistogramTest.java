@@ -0,0 +1,45 @@
+package org.cuiyang.minicap.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * HistogramTest
+ *
+ * @author cuiyang
+ */
+public class HistogramTest {
+
+    @Test
+    public void testPercentile() {
+        Histogram histogram = new Histogram(1_000_000_000L);
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10_000_000L, histogram.getMax());
+        Assert.assertEquals(5_000_500, histogram.getMean(), 1);
+        assertWithin(5_000_000, histogram.getValueAtPercentile(50));
+        assertWithin(9_900_000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(10_000_000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testBounds() {
+        Histogram histogram = new Histogram(1000);
+        histogram.record(-1);
+        histogram.record(5);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(0));
+        Assert.assertEquals(5, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(1000, histogram.getMax());
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue("expected " + expected + " actual " + actual,
+                Math.abs(actual - expected) <= expected / 64 + 1);
+    }
+}
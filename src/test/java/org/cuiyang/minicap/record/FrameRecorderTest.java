@@ -0,0 +1,90 @@
+package org.cuiyang.minicap.record;
+
+import org.apache.commons.io.FileUtils;
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * FrameRecorderTest
+ *
+ * @author cuiyang
+ */
+public class FrameRecorderTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("minicap-record").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        int count = 100;
+        record(0, count);
+        try (Recording recording = Recording.open(directory)) {
+            Assert.assertEquals(count, recording.size());
+            for (int i = 0; i < count; i++) {
+                Frame frame = recording.getFrame(i);
+                Assert.assertEquals(i, frame.getSequence());
+                Assert.assertEquals(timestamp(i), frame.getTimestamp());
+                Assert.assertArrayEquals(data(i), frame.toByteArray());
+            }
+            Assert.assertEquals(0, recording.seek(0));
+            Assert.assertEquals(50, recording.seek(timestamp(50)));
+            Assert.assertEquals(51, recording.seek(timestamp(50) + 1));
+            Assert.assertEquals(count, recording.seek(timestamp(count)));
+        }
+        Assert.assertTrue(Recording.numbers(directory).size() > 1);
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        record(0, 10);
+        int segments = Recording.numbers(directory).size();
+        record(10, 10);
+        Assert.assertTrue(Recording.numbers(directory).size() > segments);
+        try (Recording recording = Recording.open(directory)) {
+            Assert.assertEquals(20, recording.size());
+            Assert.assertEquals(15, recording.getSequence(recording.seek(timestamp(15))));
+        }
+    }
+
+    private void record(int from, int count) throws Exception {
+        FrameRecorder recorder = new FrameRecorder(directory, 32 * 1024, 1000);
+        recorder.start();
+        for (int i = from; i < from + count; i++) {
+            Frame frame = Frame.wrap(data(i));
+            frame.setSequence(i);
+            frame.setTimestamp(timestamp(i));
+            recorder.onFrame(frame);
+            frame.release();
+        }
+        recorder.close();
+        recorder.join(5000);
+        Assert.assertEquals(count, recorder.getRecordedFrames());
+        Assert.assertEquals(0, recorder.getDroppedFrames());
+    }
+
+    private static long timestamp(int i) {
+        return 1_000_000L + i * 10L;
+    }
+
+    private static byte[] data(int i) {
+        byte[] data = new byte[1000 + i * 37 % 2000];
+        Arrays.fill(data, (byte) i);
+        return data;
+    }
+}
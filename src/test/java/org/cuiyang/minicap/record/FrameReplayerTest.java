@@ -0,0 +1,94 @@
+package org.cuiyang.minicap.record;
+
+import org.apache.commons.io.FileUtils;
+import org.cuiyang.minicap.MinicapStreamGenerator;
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameReplayerTest
+ *
+ * @author cuiyang
+ */
+public class FrameReplayerTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("minicap-replay").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testDump() throws Exception {
+        MinicapStreamGenerator generator = new MinicapStreamGenerator();
+        byte[][] frames = new byte[50][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = generator.jpeg(100 + i * 10);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(MinicapStreamGenerator.stream(frames));
+        // 末尾不完整的帧
+        out.write(new byte[]{100, 0, 0, 0, (byte) 0xFF, (byte) 0xD8});
+        File file = new File(directory, "capture.bin");
+        FileUtils.writeByteArrayToFile(file, out.toByteArray());
+
+        List<byte[]> received = new ArrayList<>();
+        FrameReplayer replayer = FrameReplayer.open(file);
+        replayer.setSpeed(FrameReplayer.MAX_SPEED);
+        replayer.setScreenListener(received::add);
+        replayer.start();
+        replayer.join(5000);
+        Assert.assertFalse(replayer.isRunning());
+        Assert.assertEquals(frames.length, received.size());
+        for (int i = 0; i < frames.length; i++) {
+            Assert.assertArrayEquals(frames[i], received.get(i));
+        }
+        Assert.assertEquals(frames.length, replayer.getMetrics().getFramesReceived());
+    }
+
+    @Test
+    public void testTiming() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(directory, 1024 * 1024, 100);
+        recorder.start();
+        for (int i = 0; i < 10; i++) {
+            Frame frame = Frame.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) i, (byte) 0xFF, (byte) 0xD9});
+            frame.setSequence(i);
+            frame.setTimestamp(1000 + i * 100);
+            recorder.onFrame(frame);
+            frame.release();
+        }
+        recorder.close();
+        recorder.join(5000);
+
+        List<Long> sequences = new ArrayList<>();
+        FrameReplayer replayer = FrameReplayer.open(directory);
+        replayer.setSpeed(10);
+        replayer.setFrameListener(frame -> sequences.add(frame.getSequence()));
+        long start = System.nanoTime();
+        replayer.start();
+        replayer.join(5000);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertEquals(10, sequences.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, (long) sequences.get(i));
+        }
+        // 900ms的录制10倍速回放
+        Assert.assertTrue("elapsed: " + elapsed, elapsed >= 85 && elapsed < 2000);
+    }
+}
@@ -0,0 +1,89 @@
+package org.cuiyang.minicap.rendition;
+
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RenditionPipelineTest
+ *
+ * @author cuiyang
+ */
+public class RenditionPipelineTest {
+
+    @Test
+    public void testOrder() throws Exception {
+        RenditionPipeline pipeline = new RenditionPipeline(Arrays.asList(
+                new Rendition("full", 1, 80),
+                new Rendition("preview", 2, 70),
+                new Rendition("thumbnail", 4, 50)));
+        pipeline.setMaxInFlight(100);
+        int count = 20;
+        List<Long> sequences = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> widths = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(count);
+        pipeline.subscribe("thumbnail", frame -> {
+            sequences.add(frame.getSequence());
+            try {
+                widths.add(frame.image().getWidth());
+            } catch (IOException e) {
+                widths.add(-1);
+            }
+            latch.countDown();
+        }, DeliveryPolicy.BLOCK);
+
+        byte[] jpeg = jpeg(64, 48);
+        for (int i = 0; i < count; i++) {
+            Frame frame = Frame.wrap(jpeg);
+            frame.setSequence(i);
+            pipeline.onFrame(frame);
+            frame.release();
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            expected.add(i);
+        }
+        Assert.assertEquals(expected, sequences);
+        Assert.assertEquals(Collections.nCopies(count, 16), widths);
+        // 没有订阅者的规格不生成
+        Assert.assertEquals(count, pipeline.getRenderedFrames());
+        pipeline.close();
+    }
+
+    @Test
+    public void testNoSubscribers() throws Exception {
+        RenditionPipeline pipeline = new RenditionPipeline(Collections.singletonList(new Rendition("thumbnail", 4, 50)));
+        Frame frame = Frame.wrap(jpeg(64, 48));
+        pipeline.onFrame(frame);
+        Assert.assertEquals(1, frame.refCnt());
+        Assert.assertEquals(0, pipeline.getRenderedFrames());
+        Assert.assertEquals(0, pipeline.getSkippedFrames());
+        pipeline.close();
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.GREEN);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,181 @@
+package org.cuiyang.minicap.rendition;
+
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TileEncoderTest
+ *
+ * @author cuiyang
+ */
+public class TileEncoderTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private final BlockingQueue<TileUpdate> updates = new LinkedBlockingQueue<>();
+    private TileEncoder encoder;
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        encoder = new TileEncoder();
+        encoder.setQuality(95);
+        encoder.subscribe(frame -> updates.add(TileUpdate.parse(frame.buffer())), DeliveryPolicy.BLOCK);
+    }
+
+    @After
+    public void tearDown() {
+        encoder.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        TileDecoder decoder = new TileDecoder();
+        BufferedImage image = background();
+
+        Frame first = send(image);
+        TileUpdate keyframe = next();
+        Assert.assertTrue(keyframe.isKeyframe());
+        Assert.assertEquals(1, keyframe.getTiles().size());
+        assertSame(first.image(), decoder.apply(keyframe));
+
+        // 时钟区域变化，只发送所在的块
+        fill(image, Color.RED, 100, 100, 30, 30);
+        Frame second = send(image);
+        TileUpdate delta = next();
+        Assert.assertFalse(delta.isKeyframe());
+        Assert.assertEquals(keyframe.getSequence(), delta.getBase());
+        Assert.assertFalse(delta.getTiles().isEmpty());
+        for (TileUpdate.Tile tile : delta.getTiles()) {
+            Assert.assertEquals(0, tile.getX() % TileEncoder.DEFAULT_TILE_SIZE);
+            Assert.assertEquals(0, tile.getY() % TileEncoder.DEFAULT_TILE_SIZE);
+            // 色度上采样可能影响相邻的几个像素
+            Rectangle changed = new Rectangle(96, 96, 40, 40);
+            Assert.assertTrue(changed.intersects(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight()));
+        }
+        Assert.assertTrue(delta.toByteArray().length * 4 < second.length());
+        BufferedImage decoded = decoder.apply(delta);
+        assertSimilar(second.image(), decoded);
+
+        // 画面未变化时不输出
+        send(image);
+        Assert.assertNull(updates.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, encoder.getUnchangedFrames());
+
+        // 变化超过一半时输出关键帧
+        fill(image, Color.BLUE, 0, 0, WIDTH, HEIGHT * 3 / 4);
+        send(image);
+        TileUpdate full = next();
+        Assert.assertTrue(full.isKeyframe());
+        decoder.apply(full);
+
+        Assert.assertEquals(2, encoder.getKeyframes());
+        Assert.assertEquals(1, encoder.getDeltaFrames());
+        Assert.assertTrue(encoder.getOutputBytes() < encoder.getInputBytes());
+    }
+
+    @Test
+    public void testMissingBase() throws Exception {
+        BufferedImage image = background();
+        send(image);
+        TileUpdate keyframe = next();
+        fill(image, Color.RED, 0, 0, 16, 16);
+        send(image);
+        next();
+        fill(image, Color.GREEN, 0, 0, 16, 16);
+        send(image);
+        TileUpdate delta = next();
+
+        // 丢失中间的差量帧
+        TileDecoder decoder = new TileDecoder();
+        decoder.apply(keyframe);
+        try {
+            decoder.apply(delta);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(keyframe.getSequence(), decoder.getSequence());
+        }
+
+        // 请求关键帧后恢复
+        encoder.requestKeyframe();
+        fill(image, Color.BLUE, 0, 0, 16, 16);
+        Frame frame = send(image);
+        TileUpdate recovered = next();
+        Assert.assertTrue(recovered.isKeyframe());
+        assertSame(frame.image(), decoder.apply(recovered));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTileSize() {
+        new TileEncoder(30);
+    }
+
+    private Frame send(BufferedImage image) throws IOException {
+        Frame frame = Frame.wrap(JpegEncoder.encode(image, 90));
+        frame.setSequence(sequence++);
+        encoder.onFrame(frame);
+        return frame;
+    }
+
+    private TileUpdate next() throws InterruptedException {
+        TileUpdate update = updates.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(update);
+        return update;
+    }
+
+    private static BufferedImage background() {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT) << 8 | 0x80);
+            }
+        }
+        return image;
+    }
+
+    private static void fill(BufferedImage image, Color color, int x, int y, int width, int height) {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(x, y, width, height);
+        graphics.dispose();
+    }
+
+    private static void assertSame(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                Assert.assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * 变化的块重新编码有损失，平均误差应很小
+     */
+    private static void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        long diff = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    diff += Math.abs((a >> shift & 0xff) - (b >> shift & 0xff));
+                }
+            }
+        }
+        Assert.assertTrue(diff / (WIDTH * HEIGHT * 3.0) < 1);
+    }
+}
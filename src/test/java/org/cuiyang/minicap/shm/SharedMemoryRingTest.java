@@ -0,0 +1,143 @@
+package org.cuiyang.minicap.shm;
+
+import org.cuiyang.minicap.frame.Frame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * SharedMemoryRingTest
+ *
+ * @author cuiyang
+ */
+public class SharedMemoryRingTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("minicap", ".ring");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        try (SharedMemoryRing ring = new SharedMemoryRing(file, 4, 1024);
+             SharedMemoryRingReader reader = SharedMemoryRingReader.open(file)) {
+            Assert.assertNull(reader.poll());
+            for (int i = 0; i < 3; i++) {
+                ring.onFrame(frame(i, 100 + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                Frame frame = reader.poll();
+                Assert.assertEquals(i, frame.getSequence());
+                Assert.assertEquals(i * 1000L, frame.getTimestamp());
+                Assert.assertArrayEquals(data(i, 100 + i), frame.toByteArray());
+            }
+            Assert.assertNull(reader.poll());
+
+            // 超过槽容量的帧丢弃
+            ring.onFrame(frame(3, 2000));
+            Assert.assertEquals(1, ring.getOversizedFrames());
+            Assert.assertNull(reader.poll());
+            Assert.assertEquals(3, ring.getWrittenFrames());
+
+            ring.close();
+            Assert.assertTrue(reader.isWriterClosed());
+        }
+    }
+
+    @Test
+    public void testLag() throws Exception {
+        try (SharedMemoryRing ring = new SharedMemoryRing(file, 4, 1024);
+             SharedMemoryRingReader slow = SharedMemoryRingReader.open(file);
+             SharedMemoryRingReader fast = SharedMemoryRingReader.open(file)) {
+            for (int i = 0; i < 20; i++) {
+                ring.onFrame(frame(i, 10));
+                Assert.assertEquals(i, fast.poll().getSequence());
+            }
+            // 慢的读取端跳过被覆盖的帧，不影响写入端和其他读取端
+            for (int i = 16; i < 20; i++) {
+                Assert.assertEquals(i, slow.poll().getSequence());
+            }
+            Assert.assertNull(slow.poll());
+            Assert.assertEquals(16, slow.getLagged());
+            Assert.assertEquals(0, fast.getLagged());
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        SharedMemoryRing ring = new SharedMemoryRing(file, 4, 1024);
+        SharedMemoryRingReader reader = SharedMemoryRingReader.open(file);
+        for (int i = 0; i < 3; i++) {
+            ring.onFrame(frame(i, 10));
+        }
+        ring.close();
+        // 大小一致时原地重置，读取端从头读取
+        ring = new SharedMemoryRing(file, 4, 1024);
+        Assert.assertFalse(reader.isWriterClosed());
+        ring.onFrame(frame(100, 10));
+        Assert.assertEquals(100, reader.poll().getSequence());
+        Assert.assertNull(reader.poll());
+        ring.close();
+        reader.close();
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        int count = 50000;
+        try (SharedMemoryRing ring = new SharedMemoryRing(file, 2, 4096);
+             SharedMemoryRingReader reader = SharedMemoryRingReader.open(file)) {
+            AtomicBoolean done = new AtomicBoolean(false);
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    ring.onFrame(frame(i, 64 + i % 4000));
+                }
+                done.set(true);
+            });
+            writer.start();
+            long read = 0;
+            long last = -1;
+            while (!done.get() || reader.getHead() > last + 1) {
+                Frame frame = reader.poll();
+                if (frame == null) {
+                    continue;
+                }
+                // 读取期间被覆盖的帧不会返回
+                long sequence = frame.getSequence();
+                Assert.assertTrue(sequence > last);
+                Assert.assertArrayEquals(data((int) sequence, 64 + (int) sequence % 4000), frame.toByteArray());
+                last = sequence;
+                read++;
+            }
+            writer.join();
+            Assert.assertEquals(count - 1, last);
+            Assert.assertTrue(read + reader.getLagged() >= count - 1);
+        }
+    }
+
+    private static Frame frame(int index, int length) {
+        Frame frame = Frame.wrap(data(index, length));
+        frame.setSequence(index);
+        frame.setTimestamp(index * 1000L);
+        return frame;
+    }
+
+    private static byte[] data(int index, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) index);
+        data[0] = (byte) (index >> 8);
+        return data;
+    }
+}
@@ -0,0 +1,105 @@
+package org.cuiyang.minicap.watchdog;
+
+import org.cuiyang.minicap.FakeMinicapServer;
+import org.cuiyang.minicap.ScreenProjection;
+import org.cuiyang.minicap.frame.DeliveryPolicy;
+import org.cuiyang.minicap.metrics.FrameMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.cuiyang.minicap.watchdog.StallWatchdog.Action.RECONNECT;
+import static org.cuiyang.minicap.watchdog.StallWatchdog.Action.REDEPLOY;
+import static org.cuiyang.minicap.watchdog.StallWatchdog.Action.RESTART;
+
+/**
+ * StallWatchdogTest
+ *
+ * @author cuiyang
+ */
+public class StallWatchdogTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testEscalation() {
+        FrameMetrics metrics = new FrameMetrics();
+        List<StallWatchdog.Action> actions = new ArrayList<>();
+        StallWatchdog watchdog = new StallWatchdog(() -> metrics, actions::add);
+        watchdog.setThreshold(1, TimeUnit.SECONDS);
+
+        // 收到第一帧之前不检测
+        watchdog.check(0, 100_000 * MS);
+        long last = 1000 * MS;
+        watchdog.check(last, last + 500 * MS);
+        Assert.assertFalse(watchdog.isStalled());
+
+        long[] times = {1000, 1500, 2000, 3000, 3500, 4000, 5000, 6000};
+        for (long time : times) {
+            watchdog.check(last, last + time * MS);
+        }
+        Assert.assertTrue(watchdog.isStalled());
+        // 到达最高级后间隔翻倍
+        Assert.assertEquals(Arrays.asList(RECONNECT, RESTART, REDEPLOY, REDEPLOY, REDEPLOY), actions);
+        Assert.assertEquals(1, metrics.getStalls());
+
+        long recovered = last + 6500 * MS;
+        watchdog.check(recovered, recovered + 10 * MS);
+        Assert.assertFalse(watchdog.isStalled());
+        Assert.assertEquals(6500, metrics.getStallDurationMaxMillis(), 6500 * 0.02);
+        Assert.assertEquals(5500, metrics.getRecoveryTimeMaxMillis(), 5500 * 0.02);
+        Assert.assertEquals(3, watchdog.getActions(REDEPLOY));
+    }
+
+    @Test
+    public void testMaxAction() {
+        FrameMetrics metrics = new FrameMetrics();
+        List<StallWatchdog.Action> actions = new ArrayList<>();
+        StallWatchdog watchdog = new StallWatchdog(() -> metrics, actions::add);
+        watchdog.setThreshold(1, TimeUnit.SECONDS);
+        watchdog.setMaxAction(RECONNECT);
+        for (long time = 0; time <= 4000; time += 100) {
+            watchdog.check(MS, MS + time * MS);
+        }
+        Assert.assertEquals(Arrays.asList(RECONNECT, RECONNECT, RECONNECT), actions);
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        try (FakeMinicapServer server = new FakeMinicapServer()) {
+            server.setFps(50);
+            server.start();
+            ScreenProjection projection = new ScreenProjection("127.0.0.1", server.getPort());
+            projection.setDeliveryPolicy(DeliveryPolicy.CONFLATE);
+            projection.start();
+            StallWatchdog watchdog = new StallWatchdog(projection);
+            watchdog.setThreshold(200, TimeUnit.MILLISECONDS);
+            watchdog.start();
+            try {
+                long deadline = System.currentTimeMillis() + 2000;
+                while (projection.getMetrics().getFramesReceived() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                server.hang();
+                deadline = System.currentTimeMillis() + 3000;
+                while (projection.getMetrics().getStallDurationHistogram().getCount() == 0
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                FrameMetrics metrics = projection.getMetrics();
+                Assert.assertEquals(1, metrics.getStalls());
+                Assert.assertEquals(1, watchdog.getActions(RECONNECT));
+                Assert.assertEquals(1, metrics.getReconnects());
+                Assert.assertTrue(metrics.getStallDurationMaxMillis() >= 200);
+                Assert.assertTrue(metrics.getFrameGapMaxMillis() >= 200);
+            } finally {
+                watchdog.close();
+                projection.close();
+            }
+        }
+    }
+}